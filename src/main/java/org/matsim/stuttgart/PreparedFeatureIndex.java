@@ -0,0 +1,103 @@
+package org.matsim.stuttgart;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.geometry.geotools.MGC;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Point-in-polygon lookup over shape features, backed by an STRtree over the feature envelopes and prepared geometries.
+ * Each feature is mapped to a value once on construction, so queries do not touch the SimpleFeature API anymore.
+ *
+ * The index is read-only after construction and may be queried from several threads.
+ */
+
+public class PreparedFeatureIndex<T> {
+
+    private final STRtree tree = new STRtree();
+    private final int size;
+
+    public PreparedFeatureIndex(Collection<SimpleFeature> features, Function<SimpleFeature, T> valueExtractor) {
+
+        var factory = new PreparedGeometryFactory();
+        int order = 0;
+        for (SimpleFeature feature : features) {
+            Geometry geometry = (Geometry) feature.getDefaultGeometry();
+            tree.insert(geometry.getEnvelopeInternal(),
+                    new Entry<>(order++, factory.create(geometry), valueExtractor.apply(feature)));
+        }
+        tree.build();
+        this.size = order;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean covers(Coord coord) {
+
+        Point point = MGC.coord2Point(coord);
+        for (Entry<T> entry : query(point)) {
+            if (entry.geometry.covers(point)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the value of the first feature (in input order) covering the coord, or null if there is none
+     */
+    public T getFirst(Coord coord) {
+
+        Entry<T> result = null;
+        Point point = MGC.coord2Point(coord);
+        for (Entry<T> entry : query(point)) {
+            if ((result == null || entry.order < result.order) && entry.geometry.covers(point)) {
+                result = entry;
+            }
+        }
+        return result == null ? null : result.value;
+    }
+
+    /**
+     * @return the value of the last feature (in input order) covering the coord, or null if there is none
+     */
+    public T getLast(Coord coord) {
+
+        Entry<T> result = null;
+        Point point = MGC.coord2Point(coord);
+        for (Entry<T> entry : query(point)) {
+            if ((result == null || entry.order > result.order) && entry.geometry.covers(point)) {
+                result = entry;
+            }
+        }
+        return result == null ? null : result.value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entry<T>> query(Point point) {
+        return tree.query(point.getEnvelopeInternal());
+    }
+
+    private static class Entry<T> {
+
+        private final int order;
+        private final PreparedGeometry geometry;
+        private final T value;
+
+        Entry(int order, PreparedGeometry geometry, T value) {
+            this.order = order;
+            this.geometry = geometry;
+            this.value = value;
+        }
+    }
+}
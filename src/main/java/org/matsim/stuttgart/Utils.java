@@ -14,6 +14,7 @@ import org.matsim.vehicles.VehicleType;
 import org.matsim.vehicles.VehiclesFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -55,13 +56,13 @@ public class Utils {
     }
 
 
-    public static synchronized void addElevationIfNecessary(Node node, ElevationReader elevationReader) {
+    public static void addElevationIfNecessary(Node node, ElevationReader elevationReader) {
 
         var coord = addElevationIfNecessary(node.getCoord(), elevationReader);
         node.setCoord(coord);
     }
 
-    public static synchronized Coord addElevationIfNecessary(Coord coord, ElevationReader elevationReader) {
+    public static Coord addElevationIfNecessary(Coord coord, ElevationReader elevationReader) {
 
         if (!coord.hasZ()) {
 
@@ -77,6 +78,13 @@ public class Utils {
     }
 
 
+    public static void addElevationIfNecessary(Collection<? extends Node> nodes, ElevationReader elevationReader) {
+
+        // each node is only touched by one thread, the elevation reader is thread-safe
+        nodes.parallelStream().forEach(node -> addElevationIfNecessary(node, elevationReader));
+    }
+
+
     public static VehicleType createVehicleType(String id, double length, double maxV, double pce, VehiclesFactory factory) {
         var vehicleType = factory.createVehicleType(Id.create(id, VehicleType.class));
         vehicleType.setNetworkMode(id);
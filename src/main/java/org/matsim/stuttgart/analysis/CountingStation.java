@@ -3,20 +3,19 @@ package org.matsim.stuttgart.analysis;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CountingStation {
 
-    public String name;
-    //public int count;
-    //public HashSet<Id<Link>> surveyedLinks;
-    public HashMap<Id<Link>, Integer> bikeCounts;
+    public final String name;
+    public final List<Id<Link>> surveyedLinks;
 
     public CountingStation(String name, String[] surveyedLinks) {
         this.name = name;
-        this.bikeCounts = new HashMap<>();
+        this.surveyedLinks = new ArrayList<>();
         for (String linkId : surveyedLinks) {
-            this.bikeCounts.put(Id.createLinkId(linkId), 0);
+            this.surveyedLinks.add(Id.createLinkId(linkId));
         }
     }
 
@@ -0,0 +1,72 @@
+package org.matsim.stuttgart.analysis;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Registry of the bike counting stations of one scenario. Each surveyed link gets a slot, and slots are looked up by
+ * Id<Link>.index(), so that a counting handler only needs one array access per event to find out whether a link is
+ * surveyed. Bind one instance per controler via {@link TripAnalyzerModule}.
+ */
+public class CountingStations {
+
+    public static final int NO_SLOT = -1;
+
+    private final List<CountingStation> stations = new ArrayList<>();
+    private final List<CountingStation> stationBySlot = new ArrayList<>();
+    private final List<Id<Link>> linkBySlot = new ArrayList<>();
+    private int[] slotByLink = new int[0];
+
+    public CountingStations add(CountingStation station) {
+
+        stations.add(station);
+        for (Id<Link> link : station.surveyedLinks) {
+
+            if (getSlot(link) != NO_SLOT) {
+                throw new IllegalArgumentException("Link " + link + " of counting station " + station.name + " is already surveyed by counting station " + stationBySlot.get(getSlot(link)).name);
+            }
+
+            if (link.index() >= slotByLink.length) {
+                int oldLength = slotByLink.length;
+                slotByLink = Arrays.copyOf(slotByLink, Math.max(Id.getNumberOfIds(Link.class), link.index() + 1));
+                Arrays.fill(slotByLink, oldLength, slotByLink.length, NO_SLOT);
+            }
+            slotByLink[link.index()] = linkBySlot.size();
+            stationBySlot.add(station);
+            linkBySlot.add(link);
+        }
+        return this;
+    }
+
+    /**
+     * @return the slot of the link or NO_SLOT if the link is not surveyed by any counting station
+     */
+    public int getSlot(Id<Link> link) {
+        int index = link.index();
+        return index < slotByLink.length ? slotByLink[index] : NO_SLOT;
+    }
+
+    public int getNumberOfSlots() {
+        return linkBySlot.size();
+    }
+
+    public CountingStation getStation(int slot) {
+        return stationBySlot.get(slot);
+    }
+
+    public Id<Link> getLink(int slot) {
+        return linkBySlot.get(slot);
+    }
+
+    public List<CountingStation> getStations() {
+        return stations;
+    }
+
+    public boolean isEmpty() {
+        return stations.isEmpty();
+    }
+}
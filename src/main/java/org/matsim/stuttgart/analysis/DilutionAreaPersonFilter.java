@@ -0,0 +1,58 @@
+package org.matsim.stuttgart.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.utils.gis.ShapeFileReader;
+import org.matsim.stuttgart.PreparedFeatureIndex;
+
+import java.net.URL;
+import java.util.BitSet;
+import java.util.function.Predicate;
+
+/**
+ * Accepts persons whose first activity of the selected plan lies within the dilution area. The test is done once for
+ * all persons in parallel when the filter is created, which is when the analysis is set up before the first iteration.
+ * After that, filtering a person is a lookup in a bit set over the person indices.
+ */
+public class DilutionAreaPersonFilter implements Predicate<Id<Person>> {
+
+    private static final Logger log = LogManager.getLogger(DilutionAreaPersonFilter.class);
+
+    private final BitSet personsInArea;
+
+    public DilutionAreaPersonFilter(Population population, URL shapeFile) {
+        var dilutionArea = new PreparedFeatureIndex<Boolean>(ShapeFileReader.getAllFeatures(shapeFile), feature -> true);
+        this.personsInArea = findPersonsInArea(population, dilutionArea);
+    }
+
+    @Override
+    public boolean test(Id<Person> personId) {
+        return personsInArea.get(personId.index());
+    }
+
+    private static BitSet findPersonsInArea(Population population, PreparedFeatureIndex<Boolean> dilutionArea) {
+
+        int[] indices = population.getPersons().values().parallelStream()
+                .filter(person -> startsInArea(person, dilutionArea))
+                .mapToInt(person -> person.getId().index())
+                .toArray();
+
+        // setting the bits has to be sequential, BitSet is not thread-safe
+        var result = new BitSet();
+        for (int index : indices) {
+            result.set(index);
+        }
+
+        log.info(indices.length + " of " + population.getPersons().size() + " persons start their day within the dilution area.");
+        return result;
+    }
+
+    private static boolean startsInArea(Person person, PreparedFeatureIndex<Boolean> dilutionArea) {
+        var firstActivity = TripStructureUtils.getActivities(person.getSelectedPlan(), TripStructureUtils.StageActivityHandling.ExcludeStageActivities).get(0);
+        return dilutionArea.covers(firstActivity.getCoord());
+    }
+}
@@ -1,135 +1,238 @@
 package org.matsim.stuttgart.analysis;
 
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.events.LinkEnterEvent;
 import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
 import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
 import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.Vehicles;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
-
+import java.util.function.IntPredicate;
+
+/**
+ * Counts link entries per network mode, for bike, car and the analyzed modes. Each vehicle is classified once by the network mode
+ * of its vehicle type. Counts are kept in int arrays indexed by Id<Link>.index(), so that handling an event takes a few
+ * array accesses.
+ *
+ * Optionally, the counts are also broken down into time bins, in a dense int[links][bins] array per mode. Bike entries
+ * on links surveyed by one of the counting stations are counted per station slot as well.
+ */
 public class LinkCountHandler implements LinkEnterEventHandler, VehicleEntersTrafficEventHandler {
 
-    private final Map<Id<Link>, Integer> bikeCounter = new HashMap<>();
-    private final Map<Id<Link>, Integer> carCounter = new HashMap<>();
+    // entries after this time are counted in the last time bin
+    public static final int MAX_TIME = 30 * 3600;
+
+    private static final int UNCLASSIFIED = 0;
+    private static final int NOT_COUNTED = -1;
+
+    private final Vehicles vehicles;
+    private final Set<String> analyzedModes;
+    private final CountingStations countingStations;
+    private final int timeBinSize;
+    private final int numberOfTimeBins;
+    private final IntPredicate isAnalysisIteration;
+    private boolean isAnalyzed = true;
+
+    private final List<String> modes = new ArrayList<>();
+    // mode slot + 1 by vehicle index, UNCLASSIFIED for vehicles not seen yet and NOT_COUNTED for vehicles without mode
+    private int[] modeByVehicle = new int[0];
+    // counts by mode slot and link index
+    private int[][] counts = new int[0][];
+    // counts by mode slot, link index and time bin, rows are allocated on the first entry of a link
+    private int[][][] timeBinnedCounts = new int[0][][];
+    private int bikeMode = NOT_COUNTED;
+    // bike counts by counting station slot
+    private final int[] stationCounts;
+
+    /**
+     * @param analyzedModes network modes to count in addition to bike and car, vehicles of all other modes are ignored
+     * @param timeBinSize size of the time bins in seconds, 0 to only count whole-day volumes
+     */
+    public LinkCountHandler(Vehicles vehicles, Set<String> analyzedModes, CountingStations countingStations, int timeBinSize) {
+        this(vehicles, analyzedModes, countingStations, timeBinSize, iteration -> true);
+    }
+
+    /**
+     * @param analyzedModes network modes to count in addition to bike and car, vehicles of all other modes are ignored
+     * @param timeBinSize size of the time bins in seconds, 0 to only count whole-day volumes
+     * @param isAnalysisIteration iterations in which link entries are counted, the events of all other iterations are skipped
+     */
+    public LinkCountHandler(Vehicles vehicles, Set<String> analyzedModes, CountingStations countingStations, int timeBinSize, IntPredicate isAnalysisIteration) {
+        this.isAnalysisIteration = isAnalysisIteration;
+        this.vehicles = vehicles;
+        // bike and car are always counted, for the link counts files and the counting stations
+        this.analyzedModes = new HashSet<>(analyzedModes);
+        this.analyzedModes.add(TransportMode.bike);
+        this.analyzedModes.add(TransportMode.car);
+        this.countingStations = countingStations;
+        this.timeBinSize = timeBinSize;
+        this.numberOfTimeBins = timeBinSize > 0 ? (MAX_TIME + timeBinSize - 1) / timeBinSize : 0;
+        this.stationCounts = new int[countingStations.getNumberOfSlots()];
+    }
 
     @Override
     public void handleEvent(LinkEnterEvent event) {
+        count(event.getVehicleId(), event.getLinkId(), event.getTime());
+    }
 
-        //count car and bike link entries in entire network
-        if (isBike(event.getVehicleId())) {
+    @Override
+    public void handleEvent(VehicleEntersTrafficEvent event) {
+        count(event.getVehicleId(), event.getLinkId(), event.getTime());
+    }
 
-            if (bikeCounter.get(event.getLinkId()) == null) {
-                bikeCounter.put(event.getLinkId(), 1);
-            } else {
-                bikeCounter.put(event.getLinkId(), bikeCounter.get(event.getLinkId()) + 1);
-            }
+    private void count(Id<Vehicle> vehicleId, Id<Link> linkId, double time) {
+
+        if (!isAnalyzed) return;
 
+        int mode = getMode(vehicleId);
+        if (mode == NOT_COUNTED) return;
+
+        int link = linkId.index();
+        int[] modeCounts = counts[mode];
+        if (link >= modeCounts.length) {
+            modeCounts = counts[mode] = Arrays.copyOf(modeCounts, Math.max(Id.getNumberOfIds(Link.class), link + 1));
         }
-        if (isCar(event.getVehicleId())) {
+        modeCounts[link]++;
 
-            if (carCounter.get(event.getLinkId()) == null) {
-                carCounter.put(event.getLinkId(), 1);
-            } else {
-                carCounter.put(event.getLinkId(), carCounter.get(event.getLinkId()) + 1);
+        if (numberOfTimeBins > 0) {
+            int[][] modeTimeBinnedCounts = timeBinnedCounts[mode];
+            if (link >= modeTimeBinnedCounts.length) {
+                modeTimeBinnedCounts = timeBinnedCounts[mode] = Arrays.copyOf(modeTimeBinnedCounts, modeCounts.length);
             }
-
+            if (modeTimeBinnedCounts[link] == null) {
+                modeTimeBinnedCounts[link] = new int[numberOfTimeBins];
+            }
+            modeTimeBinnedCounts[link][Math.min((int) (time / timeBinSize), numberOfTimeBins - 1)]++;
         }
 
         //handle link entries for counting stations
-        if (CountingNetwork.getCountingStations() != null) {
-
-            for (CountingStation countingStation : CountingNetwork.getCountingStations()) {
-
-                if (countingStation.bikeCounts.containsKey(event.getLinkId()) && isBike(event.getVehicleId())) {
-                    countingStation.bikeCounts.put(event.getLinkId(), countingStation.bikeCounts.get(event.getLinkId()) + 1);
-                }
-
+        if (mode == bikeMode) {
+            int station = countingStations.getSlot(linkId);
+            if (station != CountingStations.NO_SLOT) {
+                stationCounts[station]++;
             }
-
         }
-
     }
 
+    /**
+     * Sets all counts to zero but keeps the arrays and the classification of the vehicles for the next iteration. The
+     * counts of the last analyzed iteration are kept until the next analyzed iteration starts.
+     */
     @Override
-    public void handleEvent(VehicleEntersTrafficEvent event) {
-
-        //count car and bike link entries in entire network
-        if (isBike(event.getVehicleId())) {
+    public void reset(int iteration) {
+        isAnalyzed = isAnalysisIteration.test(iteration);
+        if (!isAnalyzed) return;
 
-            if (bikeCounter.get(event.getLinkId()) == null) {
-                bikeCounter.put(event.getLinkId(), 1);
-            } else {
-                bikeCounter.put(event.getLinkId(), bikeCounter.get(event.getLinkId()) + 1);
+        for (int[] modeCounts : counts) {
+            Arrays.fill(modeCounts, 0);
+        }
+        for (int[][] modeTimeBinnedCounts : timeBinnedCounts) {
+            for (int[] row : modeTimeBinnedCounts) {
+                if (row != null) Arrays.fill(row, 0);
             }
-
         }
-        if (isCar(event.getVehicleId())) {
+        Arrays.fill(stationCounts, 0);
+    }
 
-            if (carCounter.get(event.getLinkId()) == null) {
-                carCounter.put(event.getLinkId(), 1);
-            } else {
-                carCounter.put(event.getLinkId(), carCounter.get(event.getLinkId()) + 1);
-            }
+    /**
+     * @return the mode slot of the vehicle or NOT_COUNTED
+     */
+    private int getMode(Id<Vehicle> vehicleId) {
 
+        int vehicle = vehicleId.index();
+        if (vehicle >= modeByVehicle.length) {
+            modeByVehicle = Arrays.copyOf(modeByVehicle, Math.max(Id.getNumberOfIds(Vehicle.class), vehicle + 1));
         }
 
-        //handle link entries for counting stations
-        if (CountingNetwork.getCountingStations() != null) {
-
-            for (CountingStation countingStation : CountingNetwork.getCountingStations()) {
+        if (modeByVehicle[vehicle] == UNCLASSIFIED) {
+            String mode = classify(vehicleId);
+            modeByVehicle[vehicle] = mode == null || !analyzedModes.contains(mode) ? NOT_COUNTED : getOrCreateModeSlot(mode) + 1;
+        }
 
-                if (countingStation.bikeCounts.containsKey(event.getLinkId()) && isBike(event.getVehicleId())) {
-                    countingStation.bikeCounts.put(event.getLinkId(), countingStation.bikeCounts.get(event.getLinkId()) + 1);
-                }
+        int mode = modeByVehicle[vehicle];
+        return mode == NOT_COUNTED ? NOT_COUNTED : mode - 1;
+    }
 
-            }
+    private String classify(Id<Vehicle> vehicleId) {
 
+        Vehicle vehicle = vehicles.getVehicles().get(vehicleId);
+        if (vehicle != null && vehicle.getType().getNetworkMode() != null) {
+            return vehicle.getType().getNetworkMode();
         }
 
+        // vehicles which are not part of the scenario's vehicles, e.g. transit vehicles, are only counted if their
+        // id carries the mode like the vehicles of the persons do
+        String id = vehicleId.toString();
+        if (id.endsWith(TransportMode.bike)) return TransportMode.bike;
+        if (id.endsWith(TransportMode.car)) return TransportMode.car;
+        return null;
     }
 
-    public Map<Id<Link>, Integer> getBikeCounts() {
-        return bikeCounter;
+    private int getOrCreateModeSlot(String mode) {
+
+        int slot = modes.indexOf(mode);
+        if (slot < 0) {
+            slot = modes.size();
+            modes.add(mode);
+            counts = Arrays.copyOf(counts, modes.size());
+            counts[slot] = new int[Id.getNumberOfIds(Link.class)];
+            timeBinnedCounts = Arrays.copyOf(timeBinnedCounts, modes.size());
+            timeBinnedCounts[slot] = new int[numberOfTimeBins > 0 ? Id.getNumberOfIds(Link.class) : 0][];
+            if (TransportMode.bike.equals(mode)) {
+                bikeMode = slot;
+            }
+        }
+        return slot;
     }
 
-    public Map<Id<Link>, Integer> getCarCounts() {
-        return carCounter;
+    /**
+     * @return all analyzed network modes with at least one counted link entry
+     */
+    public List<String> getModes() {
+        return modes;
     }
 
-    private boolean isBike(Id<Vehicle> vehId) {
-        //I would prefer a solution that gets the vehicles from the scenario and gets the mode from the vehicle via the Id, as I'm not sure if the suffixes are consistent (although I suspect that)
-        //and if toString is overwritten here (as the java default method will not give me the string and IntelliJ only refers me to the default method...)
-        return vehId.toString().endsWith("bike");
+    /**
+     * @return counts indexed by Id<Link>.index(), empty if the mode was not counted
+     */
+    public int[] getCounts(String mode) {
+        int slot = modes.indexOf(mode);
+        return slot < 0 ? new int[0] : counts[slot];
     }
 
-    private boolean isCar(Id<Vehicle> vehId) {
-        //I would prefer a solution that gets the vehicles from the scenario and gets the mode from the vehicle via the Id, as I'm not sure if the suffixes are consistent (although I suspect that)
-        //and if toString is overwritten here (as the java default method will not give me the string and IntelliJ only refers me to the default method...)
-        return vehId.toString().endsWith("car");
+    /**
+     * @return counts indexed by Id<Link>.index() and time bin, null for links without entries. Empty if the mode was
+     * not counted or counting per time bin is switched off.
+     */
+    public int[][] getTimeBinnedCounts(String mode) {
+        int slot = modes.indexOf(mode);
+        return slot < 0 ? new int[0][] : timeBinnedCounts[slot];
     }
 
-    public static class CountingNetwork {
-        private static HashSet<CountingStation> countingStations;
-
-        public CountingNetwork() {
-            countingStations = new HashSet<>();
-        }
-
-        public static void addCountingStation(CountingStation countingStation) {
-            countingStations.add(countingStation);
-        }
-
-        public static Set<CountingStation> getCountingStations() {
-            return countingStations;
-        }
+    public int getTimeBinSize() {
+        return timeBinSize;
+    }
 
+    public int getNumberOfTimeBins() {
+        return numberOfTimeBins;
+    }
 
+    /**
+     * @return bike counts indexed by the slots of the counting stations
+     */
+    public int[] getStationCounts() {
+        return stationCounts;
     }
 
+    public CountingStations getCountingStations() {
+        return countingStations;
+    }
 }
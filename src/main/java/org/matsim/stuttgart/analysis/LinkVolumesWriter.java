@@ -0,0 +1,76 @@
+package org.matsim.stuttgart.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes time binned link volumes as gzipped csv in wide format: one row per link with any volume and one column per
+ * time bin, headed by the start time of the bin in seconds. Values are written straight from the count arrays, without
+ * going through List<List<Object>> rows like {@link CSVWriter}.
+ */
+public class LinkVolumesWriter {
+
+    private static final Logger log = LogManager.getLogger(LinkVolumesWriter.class);
+    private static final char DELIMITER = ';';
+
+    private final Path filename;
+    private final int timeBinSize;
+
+    public LinkVolumesWriter(Path filename, int timeBinSize) {
+        this.filename = filename;
+        this.timeBinSize = timeBinSize;
+    }
+
+    /**
+     * @param volumes volumes indexed by Id<Link>.index() and time bin. Null rows and rows without any volume are
+     *                skipped, the latter are left over by {@link LinkCountHandler#reset(int)} for links used in an
+     *                earlier iteration.
+     */
+    public void write(int[][] volumes, int numberOfTimeBins) {
+
+        try (var writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(filename), 1 << 16), StandardCharsets.UTF_8))) {
+
+            writer.write("link");
+            for (int bin = 0; bin < numberOfTimeBins; bin++) {
+                writer.write(DELIMITER);
+                writer.write(Integer.toString(bin * timeBinSize));
+            }
+            writer.newLine();
+
+            for (int link = 0; link < volumes.length; link++) {
+                int[] row = volumes[link];
+                if (row == null || isEmpty(row)) continue;
+
+                writer.write(Id.get(link, Link.class).toString());
+                for (int volume : row) {
+                    writer.write(DELIMITER);
+                    writer.write(Integer.toString(volume));
+                }
+                writer.newLine();
+            }
+
+        } catch (IOException e) {
+            // catch any error here, but try to go on since other writers might succeed in writing out data
+            log.error("Failed to write link volumes: " + filename);
+            log.error(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean isEmpty(int[] row) {
+        for (int volume : row) {
+            if (volume != 0) return false;
+        }
+        return true;
+    }
+}
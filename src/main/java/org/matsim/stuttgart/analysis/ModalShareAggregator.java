@@ -0,0 +1,132 @@
+package org.matsim.stuttgart.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts trips by mode and distance class in a single pass. Distance classes are found by binary search over the
+ * upper bounds of the classes, labels like "0 to 1000" are only created when the tables are written.
+ */
+public class ModalShareAggregator {
+
+    private static final int NOT_ANALYZED = -1;
+
+    private final String[] modes;
+    private final int[] distanceClasses;
+    // number of trips by mode and distance class, the last class holds all trips beyond the last upper bound
+    private final long[][] counts;
+    // mode row by mode code of the trip store
+    private int[] modeByCode = new int[0];
+
+    /**
+     * @param distanceClasses upper bounds of the distance classes in ascending order
+     */
+    public ModalShareAggregator(String[] modes, int[] distanceClasses) {
+        this.modes = modes;
+        this.distanceClasses = distanceClasses;
+        this.counts = new long[modes.length][distanceClasses.length + 1];
+    }
+
+    /**
+     * Counts the trip if its mode is one of the analyzed modes.
+     */
+    public void add(TripStore trips, int trip) {
+
+        byte code = trips.getModeCode(trip);
+        if (code == TripStore.NO_MODE) return;
+
+        if (code >= modeByCode.length) {
+            resolveModeCodes(trips);
+        }
+
+        int mode = modeByCode[code];
+        if (mode != NOT_ANALYZED) {
+            counts[mode][getDistanceClass(trips.getDistance(trip), distanceClasses)]++;
+        }
+    }
+
+    private void resolveModeCodes(TripStore trips) {
+
+        var storedModes = trips.getModes();
+        modeByCode = new int[storedModes.size()];
+        for (int code = 0; code < storedModes.size(); code++) {
+            modeByCode[code] = Arrays.asList(modes).indexOf(storedModes.get(code));
+        }
+    }
+
+    /**
+     * @return index of the first distance class whose upper bound is greater than the distance, or the number of
+     * upper bounds if the distance is beyond the last one
+     */
+    static int getDistanceClass(double distance, int[] distanceClasses) {
+
+        int low = 0;
+        int high = distanceClasses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (distance < distanceClasses[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return rows of mode, count and share of all counted trips
+     */
+    public List<List<Object>> getModalShare() {
+
+        long total = 0;
+        long[] countsByMode = new long[modes.length];
+        for (int mode = 0; mode < modes.length; mode++) {
+            for (long count : counts[mode]) {
+                countsByMode[mode] += count;
+            }
+            total += countsByMode[mode];
+        }
+
+        List<List<Object>> result = new ArrayList<>();
+        for (int mode = 0; mode < modes.length; mode++) {
+            result.add(List.of(modes[mode], countsByMode[mode], (double) countsByMode[mode] / total));
+        }
+        return result;
+    }
+
+    /**
+     * @return rows of mode, distance class, count and share of all counted trips within the distance class
+     */
+    public List<List<Object>> getModalDistanceShare() {
+
+        long[] totalsByDistanceClass = new long[distanceClasses.length + 1];
+        for (long[] countsOfMode : counts) {
+            for (int distanceClass = 0; distanceClass < countsOfMode.length; distanceClass++) {
+                totalsByDistanceClass[distanceClass] += countsOfMode[distanceClass];
+            }
+        }
+
+        List<List<Object>> result = new ArrayList<>();
+        for (int mode = 0; mode < modes.length; mode++) {
+            for (int distanceClass = 0; distanceClass < totalsByDistanceClass.length; distanceClass++) {
+
+                long count = counts[mode][distanceClass];
+                // google spreadsheets doesn't allow for NaN values. In case we have 0 observed and 0 overall trips
+                // in a category we decide to set the share to 0.
+                double share = totalsByDistanceClass[distanceClass] == 0 ? 0 : (double) count / totalsByDistanceClass[distanceClass];
+                result.add(List.of(modes[mode], getDistanceClassLabel(distanceClass), count, share));
+            }
+        }
+        return result;
+    }
+
+    private String getDistanceClassLabel(int distanceClass) {
+
+        if (distanceClass == distanceClasses.length) {
+            return "> " + distanceClasses[distanceClasses.length - 1];
+        }
+        var lowerBound = distanceClass == 0 ? 0 : distanceClasses[distanceClass - 1];
+        return lowerBound + " to " + distanceClasses[distanceClass];
+    }
+}
@@ -1,10 +1,11 @@
 package org.matsim.stuttgart.analysis;
 
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Person;
@@ -14,28 +15,48 @@ import org.matsim.core.config.groups.ControlerConfigGroup;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
 import org.matsim.core.controler.events.AfterMobsimEvent;
-import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.StartupEvent;
 import org.matsim.core.controler.listener.AfterMobsimListener;
-import org.matsim.core.controler.listener.BeforeMobsimListener;
-import org.matsim.core.utils.collections.Tuple;
+import org.matsim.core.controler.listener.StartupListener;
 
 import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.IntPredicate;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public class TripAnalyzerModule extends AbstractModule {
 
     private static final Logger log = LogManager.getLogger(TripAnalyzerModule.class);
 
+    private final CountingStations countingStations;
+
+    public TripAnalyzerModule() {
+        this(new CountingStations());
+    }
+
+    public TripAnalyzerModule(CountingStations countingStations) {
+        this.countingStations = countingStations;
+    }
+
     @Override
     public void install() {
 
+        bind(CountingStations.class).toInstance(countingStations);
         addControlerListenerBinding().to(MobsimHandler.class);
     }
 
+    /**
+     * @return whether an iteration is analyzed, which is every analysisInterval iterations in addition to the last one
+     */
+    static IntPredicate isAnalysisIteration(int analysisInterval, int lastIteration) {
+        return iteration -> iteration == lastIteration || (analysisInterval > 0 && iteration % analysisInterval == 0);
+    }
+
     @SuppressWarnings("unused")
     public static class PrinterConfigGroup extends ReflectiveConfigGroup {
 
@@ -48,6 +69,8 @@ public class TripAnalyzerModule extends AbstractModule {
         private String modalDistanceShareId = "";
         private Path tokenDirectory = Paths.get("");
         private Path credentials = Paths.get("");
+        private int linkCountsTimeBinSize = 0;
+        private int analysisInterval = 0;
 
         @StringGetter("modalShareSpreadsheetId")
         public String getModalShareId() {
@@ -93,6 +116,34 @@ public class TripAnalyzerModule extends AbstractModule {
             return this;
         }
 
+        /**
+         * analyze every analysisInterval iterations in addition to the last one, 0 to only analyze the last iteration
+         */
+        @StringGetter("analysisInterval")
+        public int getAnalysisInterval() {
+            return analysisInterval;
+        }
+
+        @StringSetter("analysisInterval")
+        public PrinterConfigGroup setAnalysisInterval(int analysisInterval) {
+            this.analysisInterval = analysisInterval;
+            return this;
+        }
+
+        /**
+         * size of the time bins for link volumes in seconds, 0 to only write whole-day link counts
+         */
+        @StringGetter("linkCountsTimeBinSize")
+        public int getLinkCountsTimeBinSize() {
+            return linkCountsTimeBinSize;
+        }
+
+        @StringSetter("linkCountsTimeBinSize")
+        public PrinterConfigGroup setLinkCountsTimeBinSize(int linkCountsTimeBinSize) {
+            this.linkCountsTimeBinSize = linkCountsTimeBinSize;
+            return this;
+        }
+
         @StringSetter("modes")
         public void setModes(String modes) {
             setModes(StringUtils.split(modes, ","));
@@ -163,7 +214,7 @@ public class TripAnalyzerModule extends AbstractModule {
         }
     }
 
-    private static class MobsimHandler implements BeforeMobsimListener, AfterMobsimListener {
+    private static class MobsimHandler implements StartupListener, AfterMobsimListener {
 
         @Inject
         private EventsManager eventsManager;
@@ -171,6 +222,9 @@ public class TripAnalyzerModule extends AbstractModule {
         @Inject
         private Network network;
 
+        @Inject
+        private Scenario scenario;
+
         @Inject
         private OutputDirectoryHierarchy outputDirectoryHierarchy;
 
@@ -180,43 +234,51 @@ public class TripAnalyzerModule extends AbstractModule {
         @Inject
         private PrinterConfigGroup printerConfigGroup;
 
+        @Inject
+        private CountingStations countingStations;
+
         private TripEventHandler handler;
         private LinkCountHandler linkCounter;
 
-        @Override
-        public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+        private IntPredicate isAnalysisIteration;
 
-            if (event.isLastIteration()) {
-                this.handler = new TripEventHandler(network);
-                this.linkCounter = new LinkCountHandler();
-                eventsManager.addHandler(this.handler);
-                eventsManager.addHandler(this.linkCounter);
-            }
+        @Override
+        public void notifyStartup(StartupEvent event) {
+
+            // the handlers are registered once and skip the events of the iterations which are not analyzed themselves,
+            // so that their storage is reused and the other iterations don't pay for them
+            this.isAnalysisIteration = isAnalysisIteration(printerConfigGroup.getAnalysisInterval(), controlerConfig.getLastIteration());
+            this.handler = new TripEventHandler(network, isAnalysisIteration);
+            this.linkCounter = new LinkCountHandler(scenario.getVehicles(), new HashSet<>(Arrays.asList(printerConfigGroup.getModes())), countingStations, printerConfigGroup.getLinkCountsTimeBinSize(), isAnalysisIteration);
+            eventsManager.addHandler(this.handler);
+            eventsManager.addHandler(this.linkCounter);
+            writeModalSharePerIterationHeader();
         }
 
         @Override
         public void notifyAfterMobsim(AfterMobsimEvent event) {
 
-            if (event.isLastIteration()) {
-                var tripsByPerson = handler.getTripsByPerson();
-                var modesSet = Set.of(printerConfigGroup.getModes());
-                var filteredTrips = tripsByPerson.entrySet().stream()
-                        .filter(entry -> printerConfigGroup.getPersonFilter().test(entry.getKey()))
-                        .map(Map.Entry::getValue)
-                        .flatMap(Collection::stream)
-                        .filter(trip -> trip.getStartCoord() != null && trip.getEndCoord() != null)
-                        .filter(trip -> modesSet.contains(trip.getMode()))
-                        .collect(Collectors.toSet());
+            if (isAnalysisIteration.test(event.getIteration())) {
+
+                // count all trips of the analyzed modes in one pass
+                var trips = handler.getTrips();
+                var aggregator = new ModalShareAggregator(printerConfigGroup.getModes(), printerConfigGroup.getDistanceClasses());
+                for (int trip = 0; trip < trips.size(); trip++) {
+                    if (trips.hasEnd(trip) && printerConfigGroup.getPersonFilter().test(Id.get(trips.getPersonIndex(trip), Person.class))) {
+                        aggregator.add(trips, trip);
+                    }
+                }
 
                 var modalShareHeader = new String[]{"mode", "count", "share"};
-                var modalShare = modalShare2(filteredTrips, printerConfigGroup.getModes());
+                var modalShare = aggregator.getModalShare();
 
 
                 log.info("----------------------- Trip Analyzer Module - Modal Share ---------------------------");
                 new TabularLogger(modalShareHeader).write(modalShare);
                 new CSVWriter(Paths.get(outputDirectoryHierarchy.getIterationFilename(event.getIteration(), "modal-share.csv")), modalShareHeader).write(modalShare);
+                appendModalShareOfIteration(event.getIteration(), modalShare);
 
-                if (printerConfigGroup.hasGoogleIdForModalShare()) {
+                if (event.isLastIteration() && printerConfigGroup.hasGoogleIdForModalShare()) {
                     new GoogleSheetsWriter(
                             printerConfigGroup.getModalShareId(),
                             controlerConfig.getRunId(),
@@ -227,13 +289,13 @@ public class TripAnalyzerModule extends AbstractModule {
                 }
 
                 var modalDistanceShareHeader = new String[]{"mode", "distance", "count", "share"};
-                var modalDistanceShare = modalDistanceShare2(filteredTrips, printerConfigGroup.modes, printerConfigGroup.distanceClasses);
+                var modalDistanceShare = aggregator.getModalDistanceShare();
 
                 log.info("----------------------- Trip Analyzer Module - Modal Distance Share ---------------------------");
                 new TabularLogger(modalDistanceShareHeader).write(modalDistanceShare);
                 new CSVWriter(Paths.get(outputDirectoryHierarchy.getIterationFilename(event.getIteration(), "modal-distance-share.csv")), modalDistanceShareHeader).write(modalDistanceShare);
 
-                if (printerConfigGroup.hasGoogleIdForModalDistanceShare()) {
+                if (event.isLastIteration() && printerConfigGroup.hasGoogleIdForModalDistanceShare()) {
                     new GoogleSheetsWriter(
                             printerConfigGroup.getModalDistanceShareId(),
                             controlerConfig.getRunId(),
@@ -244,7 +306,7 @@ public class TripAnalyzerModule extends AbstractModule {
                 }
 
                 //write bike counting station results
-                if (LinkCountHandler.CountingNetwork.getCountingStations() != null){
+                if (!countingStations.isEmpty()){
 
                     var bikeStationCountHeader = new String[]{"Station", "Link", "bikeCount"};
                     var bikeStationCounts = bikeStationCountResults();
@@ -254,88 +316,69 @@ public class TripAnalyzerModule extends AbstractModule {
 
                 }
 
-                //write bike counts in entire network
-                var bikeCountHeader = new String[]{"Link", "bikeCount"};
-                var bikeCounts = linkCountResults(linkCounter.getBikeCounts());
-                new CSVWriter(Paths.get(outputDirectoryHierarchy.getIterationFilename(event.getIteration(),"bikeLinkCounts.csv")),bikeCountHeader).write(bikeCounts);
+                //write counts in entire network for each mode, e.g. bikeLinkCounts.csv and carLinkCounts.csv
+                for (String mode : linkCounter.getModes()) {
 
-                //write car counts in entire network
-                var carCountHeader = new String[]{"Link", "carCount"};
-                var carCounts = linkCountResults(linkCounter.getCarCounts());
-                new CSVWriter(Paths.get(outputDirectoryHierarchy.getIterationFilename(event.getIteration(),"carLinkCounts.csv")),carCountHeader).write(carCounts);
+                    var countHeader = new String[]{"Link", mode + "Count"};
+                    var counts = linkCountResults(linkCounter.getCounts(mode));
+                    new CSVWriter(Paths.get(outputDirectoryHierarchy.getIterationFilename(event.getIteration(), mode + "LinkCounts.csv")), countHeader).write(counts);
+
+                    if (linkCounter.getNumberOfTimeBins() > 0) {
+                        new LinkVolumesWriter(Paths.get(outputDirectoryHierarchy.getIterationFilename(event.getIteration(), mode + "LinkVolumes.csv.gz")), linkCounter.getTimeBinSize())
+                                .write(linkCounter.getTimeBinnedCounts(mode), linkCounter.getNumberOfTimeBins());
+                    }
+                }
 
             }
         }
 
-        private List<List<Object>> modalShare2(Set<TripEventHandler.Trip> filteredEntries, String[] modes) {
-
-            var modalSplit = filteredEntries.stream()
-                    .map(TripEventHandler.Trip::getMode)
-                    .collect(Collectors.toMap(mode -> mode, mode -> 1, Integer::sum));
-
-            var totalNumberOfTrips = modalSplit.values().stream()
-                    .mapToInt(value -> value)
-                    .sum();
-
-            List<List<Object>> result = new ArrayList<>();
-            for (var mode : modes) {
-                var value = modalSplit.getOrDefault(mode, 0);
-                var share = (double) value / totalNumberOfTrips;
-                result.add(
-                        List.of(mode, value, share)
-                );
+        /**
+         * Starts the file collecting the modal shares of all analyzed iterations, replacing the one of a previous run
+         * into the same output directory.
+         */
+        private void writeModalSharePerIterationHeader() {
+
+            var filename = Paths.get(outputDirectoryHierarchy.getOutputFilename("modal-share-per-iteration.csv"));
+            try (var writer = Files.newBufferedWriter(filename, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                 var printer = CSVFormat.DEFAULT.withDelimiter(';').print(writer)) {
+
+                printer.printRecord("iteration", "mode", "count", "share");
+            } catch (IOException e) {
+                // catch any error here, but try to go on since other writers might succeed in writing out data
+                log.error("Failed to write to CSV: " + filename);
+                log.error(e.getMessage());
             }
-
-            return result;
         }
 
-        private List<List<Object>> modalDistanceShare2(Set<TripEventHandler.Trip> filteredEntries, String[] modes, int[] distanceClasses) {
-
-            var distancesByMode = filteredEntries.stream()
-                    .map(trip -> Tuple.of(trip.getMode(), getDistanceKey(trip.getDistance(), distanceClasses)))
-                    .collect(Collectors.groupingBy(Tuple::getFirst, Collectors.toMap(Tuple::getSecond, t -> 1, Integer::sum, Object2IntOpenHashMap::new)));
-
-            var numberOfTripsPerDistanceClass = filteredEntries.stream()
-                    .map(trip -> getDistanceKey(trip.getDistance(), distanceClasses))
-                    .collect(Collectors.toMap(distance -> distance, distance -> 1, Integer::sum, Object2IntOpenHashMap::new));
+        /**
+         * Collects the modal shares of all analyzed iterations in one file in the output directory, so that the
+         * convergence of the modal split can be plotted.
+         */
+        private void appendModalShareOfIteration(int iteration, List<List<Object>> modalShare) {
 
-            List<List<Object>> values = new ArrayList<>();
+            var filename = Paths.get(outputDirectoryHierarchy.getOutputFilename("modal-share-per-iteration.csv"));
+            try (var writer = Files.newBufferedWriter(filename, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                 var printer = CSVFormat.DEFAULT.withDelimiter(';').print(writer)) {
 
-            //wrap values into list list
-            for (var mode : modes) {
-
-                // get the distanceClasses for mode
-                var distances = distancesByMode.getOrDefault(mode, new Object2IntOpenHashMap<>());
-
-                for (var distanceClass : convertToString(distanceClasses)) {
-
-                    var totalNumberForDistance = numberOfTripsPerDistanceClass.containsKey(distanceClass) ? numberOfTripsPerDistanceClass.getInt(distanceClass) : 0;
-                    var distanceAndModeValue = distances.containsKey(distanceClass) ? distances.getInt(distanceClass) : 0;  //distances.getOrDefault(distanceClass, 0);
-                    var calculatedShare = (double) distanceAndModeValue / totalNumberForDistance;
-                    // google spreadsheets doesn't allow for NaN values. In case we have 0 observed and 0 overall trips
-                    // in a category we decide to set the share to 0.
-                    var share = Double.isNaN(calculatedShare) ? 0 : calculatedShare;
-
-                    values.add(List.of(mode, distanceClass, distanceAndModeValue, share));
+                for (var row : modalShare) {
+                    printer.printRecord(iteration, row.get(0), row.get(1), row.get(2));
                 }
+            } catch (IOException e) {
+                // catch any error here, but try to go on since other writers might succeed in writing out data
+                log.error("Failed to write to CSV: " + filename);
+                log.error(e.getMessage());
             }
-
-            return values;
         }
 
         private List<List<Object>> bikeStationCountResults(){
 
-            Set<CountingStation> countingStations = LinkCountHandler.CountingNetwork.getCountingStations();
+            int[] stationCounts = linkCounter.getStationCounts();
 
             List<List<Object>> res = new ArrayList<>();
 
-            for (CountingStation countingStation : countingStations){
-
-                for (Id<Link> observedLink : countingStation.bikeCounts.keySet()){
+            for (int slot = 0; slot < countingStations.getNumberOfSlots(); slot++){
 
-                    res.add(List.of(countingStation.name, observedLink.toString(), countingStation.bikeCounts.get(observedLink)));
-
-                }
+                res.add(List.of(countingStations.getStation(slot).name, countingStations.getLink(slot).toString(), stationCounts[slot]));
 
             }
 
@@ -343,44 +386,20 @@ public class TripAnalyzerModule extends AbstractModule {
 
         }
 
-        private List<List<Object>> linkCountResults(Map<Id<Link>, Integer> counts){
+        private List<List<Object>> linkCountResults(int[] counts){
 
             List<List<Object>> res = new ArrayList<>();
 
-            for (Id<Link> link : counts.keySet()){
+            for (int link = 0; link < counts.length; link++){
 
-                res.add(List.of(link.toString(), counts.get(link)));
+                if (counts[link] > 0) {
+                    res.add(List.of(Id.get(link, Link.class).toString(), counts[link]));
+                }
 
             }
 
             return res;
 
         }
-
-        private String getDistanceKey(double distance, int[] distanceClasses) {
-
-            for (int i = 0; i < distanceClasses.length; i++) {
-                var upperBound = distanceClasses[i];
-
-                if (distance < upperBound) {
-
-                    var lowerBound = i == 0 ? 0 : distanceClasses[i - 1];
-                    return lowerBound + " to " + upperBound;
-                }
-            }
-            // if we reach here we are bigger than the biggest distance class
-            return "> " + distanceClasses[distanceClasses.length - 1];
-        }
-
-        private List<String> convertToString(int[] distanceClasses) {
-            List<String> result = new ArrayList<>();
-            for (int i = 0; i < distanceClasses.length; i++) {
-                var upperBound = distanceClasses[i];
-                var lowerBound = i == 0 ? 0 : distanceClasses[i - 1];
-                result.add(lowerBound + " to " + upperBound);
-            }
-            result.add("> " + distanceClasses[distanceClasses.length - 1]);
-            return result;
-        }
     }
 }
@@ -13,57 +13,105 @@ import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
 import org.matsim.api.core.v01.events.handler.TransitDriverStartsEventHandler;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.core.utils.geometry.CoordUtils;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
 
 public class TripEventHandler implements ActivityEndEventHandler, ActivityStartEventHandler, PersonDepartureEventHandler, TransitDriverStartsEventHandler {
 
-    private final Set<Id<Person>> transitDrivers = new HashSet<>();
-    private final Map<Id<Person>, List<Trip>> tripsByPerson = new HashMap<>();
+    // modes in the order of their rank when determining the main mode of a trip. Their codes in the trip store equal
+    // their rank, all other modes can't be ranked.
+    private static final String[] RANKED_MODES = new String[]{TransportMode.walk, TransportMode.bike, TransportMode.ride, TransportMode.car, TransportMode.pt};
+    private static final int NO_TRIP = -1;
 
-    private final Network network;
+    private final BitSet transitDrivers = new BitSet();
+    private final TripStore trips = new TripStore(RANKED_MODES);
+    // index of the current trip by person index
+    private int[] currentTrips = new int[0];
 
-    public Map<Id<Person>, List<Trip>> getTripsByPerson() {
-        return tripsByPerson;
+    private final Network network;
+    private final IntPredicate isAnalysisIteration;
+    private boolean isAnalyzed = true;
+
+    /**
+     * @return the trips of the last analyzed iteration
+     */
+    public TripStore getTrips() {
+        return trips;
     }
 
     public TripEventHandler(Network network) {
+        this(network, iteration -> true);
+    }
+
+    /**
+     * @param isAnalysisIteration iterations for which trips are collected, the events of all other iterations are skipped
+     */
+    public TripEventHandler(Network network, IntPredicate isAnalysisIteration) {
         this.network = network;
+        this.isAnalysisIteration = isAnalysisIteration;
+    }
+
+    @Override
+    public void reset(int iteration) {
+
+        // keep the trips of the last analyzed iteration until the next one starts
+        isAnalyzed = isAnalysisIteration.test(iteration);
+        if (!isAnalyzed) return;
+
+        // the chunks of the trip store are kept for the next iteration
+        trips.clear();
+        Arrays.fill(currentTrips, NO_TRIP);
+        transitDrivers.clear();
     }
 
     @Override
     public void handleEvent(ActivityEndEvent event) {
 
-        if (isInteraction(event.getActType()) || isTransitDriver(event.getPersonId())) return;
+        if (!isAnalyzed || isInteraction(event.getActType()) || isTransitDriver(event.getPersonId())) return;
+
+        int person = event.getPersonId().index();
+        if (person >= currentTrips.length) {
+            int oldLength = currentTrips.length;
+            currentTrips = Arrays.copyOf(currentTrips, Math.max(Id.getNumberOfIds(Person.class), person + 1));
+            Arrays.fill(currentTrips, oldLength, currentTrips.length, NO_TRIP);
+        }
 
-        var trip = new Trip();
-        trip.startCoord = getStartCoord(event);
-        tripsByPerson.computeIfAbsent(event.getPersonId(), id -> new ArrayList<>()).add(trip);
+        var startCoord = event.getCoord() == null ? network.getLinks().get(event.getLinkId()).getCoord() : event.getCoord();
+        currentTrips[person] = trips.add(person, startCoord);
     }
 
     @Override
     public void handleEvent(ActivityStartEvent event) {
 
-        if (isInteraction(event.getActType()) || isTransitDriver(event.getPersonId())) return;
+        if (!isAnalyzed || isInteraction(event.getActType()) || isTransitDriver(event.getPersonId())) return;
+
+        int currentTrip = getCurrentTrip(event.getPersonId());
+        if (currentTrip == NO_TRIP) return;
 
-        var currentTrip = getCurrentTrip(event.getPersonId());
-        currentTrip.endCoord = getEndCoord(event);
+        Coord endCoord = event.getCoord() == null ? network.getLinks().get(event.getLinkId()).getCoord() : event.getCoord();
+        trips.setEnd(currentTrip, endCoord);
     }
 
     @Override
     public void handleEvent(PersonDepartureEvent event) {
 
-        if (isTransitDriver(event.getPersonId())) return;
+        if (!isAnalyzed || isTransitDriver(event.getPersonId())) return;
 
-        var currentTrip = getCurrentTrip(event.getPersonId());
-        currentTrip.mode = getMainMode(currentTrip.mode, event.getLegMode());
+        int currentTrip = getCurrentTrip(event.getPersonId());
+        if (currentTrip == NO_TRIP) return;
 
+        // the mode with the higher rank is the main mode, if both can't be ranked the latest mode wins
+        byte mode = trips.getOrCreateModeCode(event.getLegMode());
+        if (getRank(trips.getModeCode(currentTrip)) <= getRank(mode)) {
+            trips.setModeCode(currentTrip, mode);
+        }
     }
 
     @Override
     public void handleEvent(TransitDriverStartsEvent event) {
-        transitDrivers.add(event.getDriverId());
+        if (isAnalyzed) transitDrivers.set(event.getDriverId().index());
     }
 
     private boolean isInteraction(String actType) {
@@ -71,56 +119,15 @@ public class TripEventHandler implements ActivityEndEventHandler, ActivityStartE
     }
 
     private boolean isTransitDriver(Id<Person> id) {
-        return transitDrivers.contains(id);
-    }
-
-    private Coord getStartCoord(ActivityEndEvent event) {
-        return event.getCoord() == null ? network.getLinks().get(event.getLinkId()).getCoord() : event.getCoord();
+        return transitDrivers.get(id.index());
     }
 
-    private Coord getEndCoord(ActivityStartEvent event) {
-        return event.getCoord() == null ? network.getLinks().get(event.getLinkId()).getCoord() : event.getCoord();
+    private int getCurrentTrip(Id<Person> id) {
+        int person = id.index();
+        return person < currentTrips.length ? currentTrips[person] : NO_TRIP;
     }
 
-    private Trip getCurrentTrip(Id<Person> id) {
-        var trips = tripsByPerson.get(id);
-        return trips.get(trips.size() - 1);
-    }
-
-    private String getMainMode(String mode1, String mode2) {
-
-        return getRank(mode1) > getRank(mode2) ? mode1 : mode2;
-    }
-
-    private int getRank(String mode) {
-        if (TransportMode.walk.equals(mode)) return 0;
-        if (TransportMode.bike.equals(mode)) return 1;
-        if (TransportMode.ride.equals(mode)) return 2;
-        if (TransportMode.car.equals(mode)) return 3;
-        if (TransportMode.pt.equals(mode)) return 4;
-        return -1; // can't tell
-    }
-
-    public static class Trip {
-
-        private Coord startCoord;
-        private Coord endCoord;
-        private String mode;
-
-        public double getDistance() {
-            return CoordUtils.calcEuclideanDistance(startCoord, endCoord);
-        }
-
-        public String getMode() {
-            return mode;
-        }
-
-        public Coord getStartCoord() {
-            return startCoord;
-        }
-
-        public Coord getEndCoord() {
-            return endCoord;
-        }
+    private static int getRank(byte mode) {
+        return mode >= 0 && mode < RANKED_MODES.length ? mode : -1; // can't tell
     }
 }
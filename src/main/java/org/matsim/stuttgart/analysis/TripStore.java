@@ -0,0 +1,170 @@
+package org.matsim.stuttgart.analysis;
+
+import org.matsim.api.core.v01.Coord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores trips as a struct of arrays: start and end coordinates, a mode code and the index of the person for each trip.
+ * Elevations are stored as NaN for coordinates without z.
+ * The arrays grow in chunks of fixed size, so that adding trips never copies the trips stored so far, and the chunks
+ * are kept when the store is cleared.
+ *
+ * Modes are stored as byte codes. The codes of the modes passed to the constructor are their position in that list,
+ * all other modes get the next free code on their first appearance.
+ */
+public class TripStore {
+
+    public static final byte NO_MODE = -1;
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final List<String> modes = new ArrayList<>();
+    private final Map<String, Byte> modeCodes = new HashMap<>();
+
+    private double[][] startX = new double[0][];
+    private double[][] startY = new double[0][];
+    private double[][] startZ = new double[0][];
+    private double[][] endX = new double[0][];
+    private double[][] endY = new double[0][];
+    private double[][] endZ = new double[0][];
+    private byte[][] modeCodesByTrip = new byte[0][];
+    private int[][] persons = new int[0][];
+    private int size = 0;
+
+    public TripStore(String... initialModes) {
+        for (String mode : initialModes) {
+            getOrCreateModeCode(mode);
+        }
+    }
+
+    /**
+     * @return the index of the new trip, which has no end coordinate and no mode yet
+     */
+    int add(int personIndex, Coord start) {
+
+        int chunk = size >> CHUNK_BITS;
+        if (chunk == persons.length) {
+            addChunk();
+        }
+
+        int offset = size & CHUNK_MASK;
+        persons[chunk][offset] = personIndex;
+        startX[chunk][offset] = start.getX();
+        startY[chunk][offset] = start.getY();
+        startZ[chunk][offset] = getZ(start);
+        endX[chunk][offset] = Double.NaN;
+        endY[chunk][offset] = Double.NaN;
+        endZ[chunk][offset] = Double.NaN;
+        modeCodesByTrip[chunk][offset] = NO_MODE;
+        return size++;
+    }
+
+    private void addChunk() {
+
+        int chunks = persons.length + 1;
+        persons = Arrays.copyOf(persons, chunks);
+        startX = Arrays.copyOf(startX, chunks);
+        startY = Arrays.copyOf(startY, chunks);
+        startZ = Arrays.copyOf(startZ, chunks);
+        endX = Arrays.copyOf(endX, chunks);
+        endY = Arrays.copyOf(endY, chunks);
+        endZ = Arrays.copyOf(endZ, chunks);
+        modeCodesByTrip = Arrays.copyOf(modeCodesByTrip, chunks);
+
+        persons[chunks - 1] = new int[CHUNK_SIZE];
+        startX[chunks - 1] = new double[CHUNK_SIZE];
+        startY[chunks - 1] = new double[CHUNK_SIZE];
+        startZ[chunks - 1] = new double[CHUNK_SIZE];
+        endX[chunks - 1] = new double[CHUNK_SIZE];
+        endY[chunks - 1] = new double[CHUNK_SIZE];
+        endZ[chunks - 1] = new double[CHUNK_SIZE];
+        modeCodesByTrip[chunks - 1] = new byte[CHUNK_SIZE];
+    }
+
+    void setEnd(int trip, Coord end) {
+        endX[trip >> CHUNK_BITS][trip & CHUNK_MASK] = end.getX();
+        endY[trip >> CHUNK_BITS][trip & CHUNK_MASK] = end.getY();
+        endZ[trip >> CHUNK_BITS][trip & CHUNK_MASK] = getZ(end);
+    }
+
+    private static double getZ(Coord coord) {
+        return coord.hasZ() ? coord.getZ() : Double.NaN;
+    }
+
+    void setModeCode(int trip, byte modeCode) {
+        modeCodesByTrip[trip >> CHUNK_BITS][trip & CHUNK_MASK] = modeCode;
+    }
+
+    /**
+     * Removes all trips but keeps the allocated chunks and the mode codes.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    byte getOrCreateModeCode(String mode) {
+
+        Byte code = modeCodes.get(mode);
+        if (code == null) {
+            if (modes.size() > Byte.MAX_VALUE) {
+                throw new IllegalStateException("Can't store more than " + (Byte.MAX_VALUE + 1) + " modes.");
+            }
+            code = (byte) modes.size();
+            modes.add(mode);
+            modeCodes.put(mode, code);
+        }
+        return code;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getPersonIndex(int trip) {
+        return persons[trip >> CHUNK_BITS][trip & CHUNK_MASK];
+    }
+
+    public byte getModeCode(int trip) {
+        return modeCodesByTrip[trip >> CHUNK_BITS][trip & CHUNK_MASK];
+    }
+
+    /**
+     * @return the mode of the trip or null if the trip has no mode
+     */
+    public String getMode(int trip) {
+        byte code = getModeCode(trip);
+        return code == NO_MODE ? null : modes.get(code);
+    }
+
+    /**
+     * @return all modes which have a code, indexed by their code
+     */
+    public List<String> getModes() {
+        return modes;
+    }
+
+    public boolean hasEnd(int trip) {
+        return !Double.isNaN(endX[trip >> CHUNK_BITS][trip & CHUNK_MASK]);
+    }
+
+    /**
+     * @return the euclidean distance between start and end of the trip. Like CoordUtils.calcEuclideanDistance, the
+     * distance is 3D if both coordinates have an elevation and planar otherwise.
+     */
+    public double getDistance(int trip) {
+        int chunk = trip >> CHUNK_BITS;
+        int offset = trip & CHUNK_MASK;
+        double dx = endX[chunk][offset] - startX[chunk][offset];
+        double dy = endY[chunk][offset] - startY[chunk][offset];
+        // NaN if one of the coordinates has no elevation
+        double dz = endZ[chunk][offset] - startZ[chunk][offset];
+        return Double.isNaN(dz) ? Math.sqrt(dx * dx + dy * dy) : Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
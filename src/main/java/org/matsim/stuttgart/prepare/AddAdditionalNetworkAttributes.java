@@ -5,9 +5,6 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Point;
-import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Network;
@@ -15,8 +12,8 @@ import org.matsim.api.core.v01.network.NetworkWriter;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.scenario.ScenarioUtils;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.gis.ShapeFileReader;
+import org.matsim.stuttgart.PreparedFeatureIndex;
 import org.opengis.feature.simple.SimpleFeature;
 import java.util.Collection;
 import java.util.HashSet;
@@ -88,80 +85,84 @@ public class AddAdditionalNetworkAttributes {
 
     public void mergeNetworkLinksWithParkingAttributes(Network network, Collection<SimpleFeature> features){
 
+        // read the parking attributes of each zone only once
+        PreparedFeatureIndex<ParkingAttributes> parkingZones = new PreparedFeatureIndex<>(features, ParkingAttributes::new);
+        ParkingAttributes noParkingZone = new ParkingAttributes();
 
-        for (var link : network.getLinks().values()){
-
-            if (!link.getAllowedModes().contains("pt")){
-
-                Coord coord = link.getCoord();
-                Point point = MGC.coord2Point(coord);
-
-                double oneHourPCost = 0.;
-                double extraHourPCost = 0.;
-                double maxDailyPCost = 0.;
-                double maxParkingTime = 30.;
-                double pFine = 0.;
-                double resPCosts = 0.;
-                String zoneName = "";
-                String zoneGroup = "";
+        // every link is only touched by one thread, so attributes may be written in parallel
+        network.getLinks().values().parallelStream()
+                .filter(link -> !link.getAllowedModes().contains("pt"))
+                .forEach(link -> {
 
+                    // first zone in the shape file covering the link wins
+                    ParkingAttributes parking = parkingZones.getFirst(link.getCoord());
+                    if (parking == null){
+                        parking = noParkingZone;
+                    }
 
-                for (SimpleFeature feature : features ) {
-                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                    link.getAttributes().putAttribute("oneHourPCost", parking.oneHourPCost);
+                    link.getAttributes().putAttribute("extraHourPCost", parking.extraHourPCost);
+                    link.getAttributes().putAttribute("maxDailyPCost", parking.maxDailyPCost);
+                    link.getAttributes().putAttribute("maxPTime", parking.maxParkingTime);
+                    link.getAttributes().putAttribute("pFine", parking.pFine);
+                    link.getAttributes().putAttribute("resPCosts", parking.resPCosts);
+                    link.getAttributes().putAttribute("zoneName", parking.zoneName);
+                    link.getAttributes().putAttribute("zoneGroup", parking.zoneGroup);
 
-                    if (geometry.covers(point)) {
+                });
 
-                        if (feature.getAttribute("zone_name") != null){
-                            zoneName = (String) feature.getAttribute("zone_name");
-                        }
+    }
 
-                        if (feature.getAttribute("zone_group") != null){
-                            zoneGroup = (String) feature.getAttribute("zone_group");
-                        }
 
-                        if (feature.getAttribute("h_costs") != null){
-                            oneHourPCost = (Double) feature.getAttribute("h_costs");
-                        }
+    private static class ParkingAttributes {
 
-                        if (feature.getAttribute("h_costs") != null){
-                            extraHourPCost = (Double) feature.getAttribute("h_costs");
-                        }
+        private double oneHourPCost = 0.;
+        private double extraHourPCost = 0.;
+        private double maxDailyPCost = 0.;
+        private double maxParkingTime = 30.;
+        private double pFine = 0.;
+        private double resPCosts = 0.;
+        private String zoneName = "";
+        private String zoneGroup = "";
 
-                        if (feature.getAttribute("dmax_costs") != null){
-                            maxDailyPCost = (Double) feature.getAttribute("dmax_costs");
-                        }
+        ParkingAttributes() {
+            // defaults for links outside of all parking zones
+        }
 
-                        if (feature.getAttribute("max_time") != null){
-                            maxParkingTime = (Double) feature.getAttribute("max_time");
-                        }
+        ParkingAttributes(SimpleFeature feature) {
 
-                        if (feature.getAttribute("penalty") != null){
-                            pFine = (Double) feature.getAttribute("penalty");
-                        }
+            if (feature.getAttribute("zone_name") != null){
+                zoneName = (String) feature.getAttribute("zone_name");
+            }
 
-                        if (feature.getAttribute("res_costs") != null){
-                            resPCosts = (Double) feature.getAttribute("res_costs");
-                        }
+            if (feature.getAttribute("zone_group") != null){
+                zoneGroup = (String) feature.getAttribute("zone_group");
+            }
 
-                        break;
-                    }
-                }
+            if (feature.getAttribute("h_costs") != null){
+                oneHourPCost = (Double) feature.getAttribute("h_costs");
+            }
 
-                link.getAttributes().putAttribute("oneHourPCost", oneHourPCost);
-                link.getAttributes().putAttribute("extraHourPCost", extraHourPCost);
-                link.getAttributes().putAttribute("maxDailyPCost", maxDailyPCost);
-                link.getAttributes().putAttribute("maxPTime", maxParkingTime);
-                link.getAttributes().putAttribute("pFine", pFine);
-                link.getAttributes().putAttribute("resPCosts", resPCosts);
-                link.getAttributes().putAttribute("zoneName", zoneName);
-                link.getAttributes().putAttribute("zoneGroup", zoneGroup);
+            if (feature.getAttribute("h_costs") != null){
+                extraHourPCost = (Double) feature.getAttribute("h_costs");
+            }
 
+            if (feature.getAttribute("dmax_costs") != null){
+                maxDailyPCost = (Double) feature.getAttribute("dmax_costs");
             }
 
+            if (feature.getAttribute("max_time") != null){
+                maxParkingTime = (Double) feature.getAttribute("max_time");
+            }
 
+            if (feature.getAttribute("penalty") != null){
+                pFine = (Double) feature.getAttribute("penalty");
+            }
 
+            if (feature.getAttribute("res_costs") != null){
+                resPCosts = (Double) feature.getAttribute("res_costs");
+            }
         }
-
     }
 
 
@@ -21,8 +21,7 @@ package org.matsim.stuttgart.prepare;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.matsim.api.core.v01.Scenario;
-import org.matsim.core.config.Config;
+import org.matsim.api.core.v01.Coord;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.facilities.*;
@@ -30,48 +29,94 @@ import org.matsim.stuttgart.Utils;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
+ * Removes link references and attributes from the facilities and adds the elevation to their coords. The input is
+ * streamed, but the cleaned facilities are still held in memory and written at the end.
+ *
  * @author ikaddoura
  */
 
 public class CleanFacilities {
 
     private static final Logger log = LogManager.getLogger(CleanFacilities.class);
-    private static final String inputFacilities = "projects\\matsim-stuttgart\\stuttgart-v0.0-snz-original\\optimizedFacilities.xml.gz";
-    private static final String outputFacilities = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\matsim-stuttgart-v2.0.facilities.xml.gz";
+    private static final int BATCH_SIZE = 10000;
+    static final String inputFacilities = "projects\\matsim-stuttgart\\stuttgart-v0.0-snz-original\\optimizedFacilities.xml.gz";
+    static final String outputFacilities = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\matsim-stuttgart-v2.0.facilities.xml.gz";
 
     public static void main(String[] args) {
 
         var arguments = Utils.parseSharedSvn(args);
-        clean(Paths.get(arguments.getSharedSvn()));
+        var svn = Paths.get(arguments.getSharedSvn());
+        var elevationDataPaths = PrepareScenario.elevationData.stream()
+                .map(svn::resolve)
+                .map(Path::toString)
+                .collect(Collectors.toList());
+
+        var elevationReader = new ElevationReader(elevationDataPaths, PrepareScenario.transformUTM32ToWGS84);
+        clean(svn, elevationReader);
     }
 
-    public static void clean(Path sharedSvn) {
+    /**
+     * Streams the facilities from the input file and copies them without link references and attributes into the
+     * output facilities, adding the elevation to their coords. Facilities are collected in batches, so that the
+     * elevations of a batch can be looked up in parallel. Only the cleaned facilities are held in memory.
+     */
+    public static void clean(Path sharedSvn, ElevationReader elevationReader) {
 
-        // ToDo add z coord to facility coord
+        var facilities = ScenarioUtils.createScenario(ConfigUtils.createConfig()).getActivityFacilities();
+        var batch = new Batch(facilities, elevationReader);
 
-        Config config = ConfigUtils.createConfig();
-        config.facilities().setInputFile(sharedSvn.resolve(inputFacilities).toString());
-        Scenario scInput = ScenarioUtils.loadScenario(config);
+        log.info("Reading and cleaning facilities...");
+        new MatsimFacilitiesReader(null, null, new StreamingActivityFacilities(batch::add))
+                .readFile(sharedSvn.resolve(inputFacilities).toString());
+        batch.flush();
+        log.info("Reading and cleaning facilities... Done. Cleaned " + facilities.getFacilities().size() + " facilities.");
+        elevationReader.logCacheStatistics();
 
-        var scOutput = ScenarioUtils.createScenario(ConfigUtils.createConfig());
-        ActivityFacilities facilities = scOutput.getActivityFacilities();
+        log.info("Writing...");
+        new FacilitiesWriter(facilities).write(sharedSvn.resolve(outputFacilities).toString());
+        log.info("Writing... Done.");
+    }
 
-        ActivityFacilitiesFactoryImpl fact = new ActivityFacilitiesFactoryImpl();
+    private static class Batch {
 
-        for (ActivityFacility fac : scInput.getActivityFacilities().getFacilities().values()) {
+        private final ActivityFacilitiesFactory factory = new ActivityFacilitiesFactoryImpl();
+        private final List<ActivityFacility> facilities = new ArrayList<>(BATCH_SIZE);
+        private final ActivityFacilities output;
+        private final ElevationReader elevationReader;
 
-            ActivityFacility newFacility = fact.createActivityFacility(fac.getId(), fac.getCoord());
+        private Batch(ActivityFacilities output, ElevationReader elevationReader) {
+            this.output = output;
+            this.elevationReader = elevationReader;
+        }
 
-            for (ActivityOption option : fac.getActivityOptions().values()) {
-                newFacility.addActivityOption(option);
+        private void add(ActivityFacility facility) {
+            facilities.add(facility);
+            if (facilities.size() == BATCH_SIZE) {
+                flush();
             }
-            facilities.addActivityFacility(newFacility);
         }
 
-        log.info("Writing...");
-        new FacilitiesWriter(facilities).write(sharedSvn.resolve(outputFacilities).toString());
-        log.info("Writing... Done.");
+        private void flush() {
+
+            var coords = facilities.stream().map(ActivityFacility::getCoord).collect(Collectors.toList());
+            var elevations = elevationReader.getElevationsAt(coords);
+
+            for (int i = 0; i < facilities.size(); i++) {
+
+                var facility = facilities.get(i);
+                var coord = new Coord(facility.getCoord().getX(), facility.getCoord().getY(), elevations[i]);
+                var cleaned = factory.createActivityFacility(facility.getId(), coord);
+                for (ActivityOption option : facility.getActivityOptions().values()) {
+                    cleaned.addActivityOption(option);
+                }
+                output.addActivityFacility(cleaned);
+            }
+            facilities.clear();
+        }
     }
-}
\ No newline at end of file
+}
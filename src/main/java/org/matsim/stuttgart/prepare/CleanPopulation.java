@@ -2,30 +2,34 @@ package org.matsim.stuttgart.prepare;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.population.*;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.population.io.PopulationReader;
 import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.core.population.io.StreamingPopulationReader;
+import org.matsim.core.population.io.StreamingPopulationWriter;
 import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.stuttgart.Utils;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CleanPopulation {
 
     private static final Logger log = LogManager.getLogger(CleanPopulation.class);
-    private static final String inputPopulation = "projects\\matsim-stuttgart\\stuttgart-v0.0-snz-original\\optimizedPopulation.xml.gz";
+    static final String inputPopulation = "projects\\matsim-stuttgart\\stuttgart-v0.0-snz-original\\optimizedPopulation.xml.gz";
     static final String outputPopulation = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\optimizedPopulationCleaned.xml.gz";
+    private static final int PIPELINE_CAPACITY = 10000;
 
     public static void main(String[] args) {
 
         var arguments = Utils.parseSharedSvn(args);
-        clean(Paths.get(arguments.getSharedSvn()));
+        cleanStreaming(Paths.get(arguments.getSharedSvn()));
     }
 
     public static void clean(Path sharedSvn) {
@@ -34,80 +38,161 @@ public class CleanPopulation {
         log.info("loading population");
         new PopulationReader(scenario).readFile(sharedSvn.resolve(inputPopulation).toString());
 
-        log.info("Removing route information and setting all legs to 'walk'");
+        log.info("Removing route information, setting all legs to 'walk' and splitting activity types");
         scenario.getPopulation().getPersons().values().parallelStream()
-                .forEach(person -> {
+                .forEach(CleanPopulation::cleanPerson);
 
-                    var newPlan = PopulationUtils.createPlan();
-                    var trips = TripStructureUtils.getTrips(person.getSelectedPlan());
+        new PopulationWriter(scenario.getPopulation()).write(sharedSvn.resolve(outputPopulation).toString());
+
+    }
+
+    /**
+     * Same as {@link #clean(Path)}, but streams the population from the input to the output file instead of loading it
+     * into memory. Persons are cleaned by worker threads, at most {@link #PIPELINE_CAPACITY} persons are in flight at
+     * any time, so memory use does not depend on the size of the population. The order of the persons is preserved.
+     */
+    public static void cleanStreaming(Path sharedSvn) {
+
+        var scenario = ScenarioUtils.createMutableScenario(ConfigUtils.createConfig());
+        var reader = new StreamingPopulationReader(scenario);
+        var writer = new StreamingPopulationWriter();
+        var executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        // futures in the order the persons were read. The writer takes them from the queue in that order, the
+        // reader blocks while the queue is full.
+        var queue = new ArrayBlockingQueue<Future<Person>>(PIPELINE_CAPACITY);
+        Future<Person> endOfPopulation = CompletableFuture.completedFuture(null);
+        var writerException = new AtomicReference<Throwable>();
+        var writerThread = new Thread(() -> {
+            try {
+                for (var person = queue.take(); person != endOfPopulation; person = queue.take()) {
+                    writer.run(person.get());
+                }
+            } catch (Throwable e) {
+                // the failure is recorded before the executor is stopped, so that the reader knows why it can't
+                // submit anymore
+                writerException.set(e instanceof ExecutionException ? e.getCause() : e);
+                // unblock the reader, the remaining persons are discarded
+                executor.shutdownNow();
+                queue.clear();
+            }
+        }, "CleanPopulation-writer");
+
+        reader.addAlgorithm(person -> {
+            if (writerException.get() != null) return;
+            Future<Person> cleaned;
+            try {
+                cleaned = executor.submit(() -> {
+                    cleanPerson(person);
+                    return person;
+                });
+            } catch (RejectedExecutionException e) {
+                // the writer has failed after the check above, its failure is rethrown at the end
+                if (writerException.get() != null) return;
+                throw e;
+            }
+            try {
+                queue.put(cleaned);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        log.info("Streaming population, removing route information, setting all legs to 'walk' and splitting activity types");
+        writer.startStreaming(sharedSvn.resolve(outputPopulation).toString());
+        writerThread.start();
+        try {
+            reader.readFile(sharedSvn.resolve(inputPopulation).toString());
+            queue.put(endOfPopulation);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // stops the writer if reading failed, no-op otherwise
+            stopWriter(writerThread);
+            executor.shutdown();
+            writer.closeStreaming();
+        }
 
-                    var firstActivity = (Activity) person.getSelectedPlan().getPlanElements().get(0);
-                    firstActivity.setLinkId(null);
-                    firstActivity.setFacilityId(null);
+        // rethrow the original failure of the writer or of cleaning a person
+        var failure = writerException.get();
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new RuntimeException("Failed to clean population", failure);
+    }
 
-                    newPlan.addActivity(firstActivity); // copy the first activity
+    private static void stopWriter(Thread writerThread) {
+        writerThread.interrupt();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
+    private static void cleanPerson(Person person) {
 
-                    // clear plans
-                    person.setSelectedPlan(null);
-                    person.getPlans().clear();
+        var newPlan = PopulationUtils.createPlan();
+        var trips = TripStructureUtils.getTrips(person.getSelectedPlan());
 
-                    // add more activities and legs if there is more than one activity
-                    for (var trip : trips) {
+        var firstActivity = (Activity) person.getSelectedPlan().getPlanElements().get(0);
+        firstActivity.setLinkId(null);
+        firstActivity.setFacilityId(null);
 
-                        // put in all walk legs since we have to re-calibrate anyway
-                        newPlan.addLeg(PopulationUtils.createLeg(TransportMode.walk));
-                        var activity = trip.getDestinationActivity();
-                        activity.setLinkId(null);
-                        activity.setFacilityId(null);
-                        newPlan.addActivity(trip.getDestinationActivity());
-                    }
+        newPlan.addActivity(firstActivity); // copy the first activity
 
-                    person.addPlan(newPlan);
 
-                    // add subpopulation attribute
-                    person.getAttributes().putAttribute("subpopulation", "person");
-                });
+        // clear plans
+        person.setSelectedPlan(null);
+        person.getPlans().clear();
 
-        splitActivityTypesBasedOnDuration(scenario.getPopulation());
+        // add more activities and legs if there is more than one activity
+        for (var trip : trips) {
 
-        new PopulationWriter(scenario.getPopulation()).write(sharedSvn.resolve(outputPopulation).toString());
+            // put in all walk legs since we have to re-calibrate anyway
+            newPlan.addLeg(PopulationUtils.createLeg(TransportMode.walk));
+            var activity = trip.getDestinationActivity();
+            activity.setLinkId(null);
+            activity.setFacilityId(null);
+            newPlan.addActivity(trip.getDestinationActivity());
+        }
 
+        person.addPlan(newPlan);
+
+        // add subpopulation attribute
+        person.getAttributes().putAttribute("subpopulation", "person");
+
+        splitActivityTypesBasedOnDuration(newPlan);
+        mergeOvernightActivities(newPlan);
     }
 
 
     /**
      * Split activities into typical durations to improve value of travel time savings calculation.
      */
-    private static void splitActivityTypesBasedOnDuration(Population population) {
+    private static void splitActivityTypesBasedOnDuration(Plan plan) {
 
         final double timeBinSize_s = 600.;
 
         // Calculate activity durations for the next step
-        for (Person p : population.getPersons().values()) {
-            for (Plan plan : p.getPlans()) {
-                for (PlanElement el : plan.getPlanElements()) {
-
-                    if (!(el instanceof Activity))
-                        continue;
+        for (PlanElement el : plan.getPlanElements()) {
 
-                    Activity act = (Activity) el;
-                    double duration = act.getEndTime().orElse(24 * 3600)
-                            - act.getStartTime().orElse(0);
+            if (!(el instanceof Activity))
+                continue;
 
-                    int durationCategoryNr = (int) Math.round((duration / timeBinSize_s));
+            Activity act = (Activity) el;
+            double duration = act.getEndTime().orElse(24 * 3600)
+                    - act.getStartTime().orElse(0);
 
-                    if (durationCategoryNr <= 0) {
-                        durationCategoryNr = 1;
-                    }
+            int durationCategoryNr = (int) Math.round((duration / timeBinSize_s));
 
-                    String newType = act.getType() + "_" + (durationCategoryNr * timeBinSize_s);
-                    act.setType(newType);
+            if (durationCategoryNr <= 0) {
+                durationCategoryNr = 1;
+            }
 
-                }
+            String newType = act.getType() + "_" + (durationCategoryNr * timeBinSize_s);
+            act.setType(newType);
 
-                mergeOvernightActivities(plan);
-            }
         }
     }
 
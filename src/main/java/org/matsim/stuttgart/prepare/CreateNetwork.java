@@ -31,9 +31,9 @@ public class CreateNetwork {
 
     private static final Logger log = LogManager.getLogger(CreateNetwork.class);
 
-    private static final String senozonNetworkPath = "projects\\matsim-stuttgart\\stuttgart-v0.0-snz-original\\optimizedNetwork.xml.gz";
-    private static final String outputNetwork = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\matsim-stuttgart-v2.0.network.xml.gz";
-    private static final String osmFile = "projects\\matsim-stuttgart\\stuttgart-v2.0\\raw-data\\osm\\germany-20200715.osm.pbf";
+    static final String senozonNetworkPath = "projects\\matsim-stuttgart\\stuttgart-v0.0-snz-original\\optimizedNetwork.xml.gz";
+    static final String outputNetwork = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\matsim-stuttgart-v2.0.network.xml.gz";
+    static final String osmFile = "projects\\matsim-stuttgart\\stuttgart-v2.0\\raw-data\\osm\\germany-20200715.osm.pbf";
 
 
     public static void main(String[] args) {
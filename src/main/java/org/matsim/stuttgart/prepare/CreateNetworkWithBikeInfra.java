@@ -3,10 +3,12 @@ package org.matsim.stuttgart.prepare;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.NetworkWriter;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.contrib.osm.networkReader.LinkProperties;
 import org.matsim.contrib.osm.networkReader.OsmBicycleReader;
 import org.matsim.core.network.NetworkUtils;
@@ -31,6 +33,9 @@ public class CreateNetworkWithBikeInfra {
     private static final String outputNetwork = "input/stuttgart-v3.0/matsim-stuttgart-v3.0.network.xml.gz";
     private static final String osmFile = "input/stuttgart-v3.0/raw-data/osm/germany-230503.osm.pbf";
 
+    // maximum distance in meters between two elevation samples along a link, about a third of the srtm resolution
+    private static final double elevationSampleDistance = 30.;
+
 
     public static void main(String[] args) {
         final Collection<String> elevationData = List.of("input/stuttgart-v2.0/raw-data/heightmaps/srtm_38_03.tif", "input/stuttgart-v2.0/raw-data/heightmaps/srtm_39_03.tif");
@@ -143,9 +148,47 @@ public class CreateNetworkWithBikeInfra {
         cleaner.run(Set.of(TransportMode.bike));
 
         log.info("Finished network cleaner");
+
+        log.info("Adding ascent and descent along the original link geometries");
+        addAscentAndDescent(network, elevationReader);
+
         return network;
     }
 
+    /**
+     * Samples the elevation along the original osm geometry of each link and stores the summed up ascent and descent
+     * in meters as link attributes, which is what the gradient in bicycle scoring is computed from.
+     */
+    static void addAscentAndDescent(Network network, ElevationReader elevationReader) {
+
+        network.getLinks().values().parallelStream().forEach(link -> {
+
+            var polyline = new ArrayList<Coord>();
+            polyline.add(link.getFromNode().getCoord());
+            if (link.getAttributes().getAttribute(NetworkUtils.ORIG_GEOM) != null) {
+                for (Node node : NetworkUtils.getOriginalGeometry(link)) {
+                    polyline.add(node.getCoord());
+                }
+            }
+            polyline.add(link.getToNode().getCoord());
+
+            double[] elevations = elevationReader.getElevationProfile(polyline, elevationSampleDistance);
+            double ascent = 0.;
+            double descent = 0.;
+            for (int i = 1; i < elevations.length; i++) {
+                double difference = elevations[i] - elevations[i - 1];
+                if (difference > 0) {
+                    ascent += difference;
+                } else {
+                    descent -= difference;
+                }
+            }
+
+            link.getAttributes().putAttribute("ascent", ascent);
+            link.getAttributes().putAttribute("descent", descent);
+        });
+    }
+
     public static void writeNetwork(Network network, Path svn) {
         log.info("Writing network to " + svn.resolve(outputNetwork));
         new NetworkWriter(network).write(svn.resolve(outputNetwork).toString());
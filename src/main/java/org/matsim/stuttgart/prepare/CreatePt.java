@@ -25,9 +25,9 @@ import java.util.stream.Collectors;
 
 public class CreatePt {
 
-    private static final String schedule = "input/stuttgart-v3.0/raw-data/gtfs/vvs_gtfs_realtime_230509.zip";
-    private static final String transitSchedule = "input/stuttgart-v3.0/matsim-stuttgart-v3.0.transit-schedule.xml.gz";
-    private static final String transitVehicles = "input/stuttgart-v3.0/matsim-stuttgart-v3.0.transit-vehicles.xml.gz";
+    static final String schedule = "input/stuttgart-v3.0/raw-data/gtfs/vvs_gtfs_realtime_230509.zip";
+    static final String transitSchedule = "input/stuttgart-v3.0/matsim-stuttgart-v3.0.transit-schedule.xml.gz";
+    static final String transitVehicles = "input/stuttgart-v3.0/matsim-stuttgart-v3.0.transit-vehicles.xml.gz";
     private static final String inputNetwork = "input/stuttgart-v3.0/matsim-stuttgart-v3.0.network.xml.gz";
 
 
@@ -71,16 +71,15 @@ public class CreatePt {
         new CreatePseudoNetwork(scenario.getTransitSchedule(), scenario.getNetwork(), "pt_").createNetwork();
 
         // add z-Coordinates in transit network
-        for (var node: scenario.getNetwork().getNodes().values()){
-            // set all to elevation profile
-            Utils.addElevationIfNecessary(node, elevationReader);
-        }
+        // set all to elevation profile
+        Utils.addElevationIfNecessary(scenario.getNetwork().getNodes().values(), elevationReader);
 
         // and for stop facilities in transit schedule
-        for (var stopFacility: scenario.getTransitSchedule().getFacilities().values()){
+        scenario.getTransitSchedule().getFacilities().values().parallelStream().forEach(stopFacility -> {
             Coord coord = stopFacility.getCoord();
             stopFacility.setCoord(Utils.addElevationIfNecessary(coord, elevationReader));
-        }
+        });
+        elevationReader.logCacheStatistics();
 
         writeScheduleVehiclesAndNetwork(scenario, sharedSvn);
     }
@@ -5,28 +5,80 @@ import org.apache.logging.log4j.Logger;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.gce.geotiff.GeoTiffReader;
 import org.geotools.geometry.DirectPosition2D;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.operation.MathTransform2D;
 import org.opengis.referencing.operation.TransformException;
 
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+/**
+ * Looks up elevations from geo tiff height maps. Instances are thread-safe.
+ */
 public class ElevationReader {
 
     private final static Logger log = LogManager.getLogger(ElevationReader.class);
-    private final Collection<ElevationMap> elevationMaps;
+    private final List<ElevationMap> elevationMaps;
+    private final STRtree elevationMapIndex = new STRtree();
     private final CoordinateTransformation transformation;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
 
+    /**
+     * Loads the complete height maps into memory.
+     */
     ElevationReader(Collection<String> filenames, CoordinateTransformation transformation) {
+        this(filenames, transformation, 0);
+    }
+
+    ElevationReader(Collection<String> filenames, CoordinateTransformation transformation, int maxCachedTiles) {
+        this(filenames, transformation, maxCachedTiles, 0);
+    }
+
+    /**
+     * Reads the height maps tile by tile on demand and keeps at most maxCachedTiles tiles per height map in memory.
+     * When a tile has to be evicted, the least recently used one goes. Use this for large height maps, which would not
+     * fit into the heap as a whole. maxCachedTiles = 0 loads the complete height maps into memory.
+     *
+     * In tiled mode, up to maxCachedElevations looked up elevations can be cached per height map in addition, keyed by
+     * their grid cell, so that cached values are exactly what the raster would return. A hit saves looking up the tile,
+     * which may have been evicted and would have to be read again. Without tiles, reading the raster is a plain array
+     * access, which a cache can't beat, so the cache is only available together with tiles. maxCachedElevations = 0
+     * disables the cache. The cache does not evict single entries: once it is full, it is cleared completely before
+     * the next elevation is added. This is cheaper than tracking the access order on every lookup, and works well for
+     * lookups which are ordered in space, as they are for nodes and link geometries.
+     */
+    ElevationReader(Collection<String> filenames, CoordinateTransformation transformation, int maxCachedTiles, int maxCachedElevations) {
+
+        if (maxCachedElevations > 0 && maxCachedTiles <= 0) {
+            throw new IllegalArgumentException("Caching elevations only pays off when reading the height maps tile by tile. Set maxCachedTiles > 0 or maxCachedElevations = 0.");
+        }
 
         log.info("Loading " + filenames.size() + " height maps.");
         elevationMaps = filenames.parallelStream()
-                .map(ElevationMap::new)
+                .map(filename -> new ElevationMap(filename, maxCachedTiles, maxCachedElevations))
                 .collect(Collectors.toList());
+        for (int i = 0; i < elevationMaps.size(); i++) {
+            elevationMapIndex.insert(elevationMaps.get(i).envelope, i);
+        }
+        elevationMapIndex.build();
         this.transformation = transformation;
     }
 
@@ -34,55 +86,358 @@ public class ElevationReader {
 
         Coord transformed = transformation.transform(coord);
         var position = new DirectPosition2D(transformed.getX(), transformed.getY());
+        return getElevation(findElevationMap(position, coord), position);
+    }
+
+    /**
+     * Looks up the elevations of all coords in parallel.
+     *
+     * @return elevations in the order of the given coords
+     */
+    public double[] getElevationsAt(List<Coord> coords) {
+
+        double[] elevations = new double[coords.size()];
+        IntStream.range(0, coords.size()).parallel()
+                .forEach(i -> elevations[i] = getElevationAt(coords.get(i)));
+        return elevations;
+    }
+
+    /**
+     * Samples the elevation along a polyline, at each vertex and at most sampleDistance apart in between. Samples are
+     * interpolated bilinearly between the centers of the surrounding raster cells, so that profiles do not jump at
+     * cell borders. Consecutive samples are looked up in the same height map as long as it covers them, which skips
+     * the index query for all but the first sample.
+     *
+     * @param polyline       vertices in the CRS of the coords passed to getElevationAt
+     * @param sampleDistance maximum distance between two samples in units of that CRS
+     * @return elevations of the samples in the order along the polyline
+     */
+    public double[] getElevationProfile(List<Coord> polyline, double sampleDistance) {
+
+        var samples = densify(polyline, sampleDistance);
+        double[] elevations = new double[samples.size()];
+        ElevationMap elevationMap = null;
+        for (int i = 0; i < samples.size(); i++) {
+            Coord transformed = transformation.transform(samples.get(i));
+            var position = new DirectPosition2D(transformed.getX(), transformed.getY());
+            if (elevationMap == null || !elevationMap.covers(position)) {
+                elevationMap = findElevationMap(position, samples.get(i));
+            }
+            elevations[i] = elevationMap.getInterpolatedElevation(position);
+        }
+        return elevations;
+    }
 
-        for (ElevationMap elevationMap : elevationMaps) {
+    private static List<Coord> densify(List<Coord> polyline, double sampleDistance) {
 
-            if (elevationMap.covers(position)) {
-                return elevationMap.getElevation(position);
+        var samples = new ArrayList<Coord>();
+        for (int i = 0; i < polyline.size() - 1; i++) {
+            Coord from = polyline.get(i);
+            Coord to = polyline.get(i + 1);
+            double dx = to.getX() - from.getX();
+            double dy = to.getY() - from.getY();
+            int numberOfSegments = Math.max(1, (int) Math.ceil(Math.sqrt(dx * dx + dy * dy) / sampleDistance));
+            for (int j = 0; j < numberOfSegments; j++) {
+                double fraction = (double) j / numberOfSegments;
+                samples.add(new Coord(from.getX() + fraction * dx, from.getY() + fraction * dy));
             }
         }
+        if (!polyline.isEmpty()) {
+            samples.add(polyline.get(polyline.size() - 1));
+        }
+        return samples;
+    }
+
+    private ElevationMap findElevationMap(DirectPosition2D position, Coord coord) {
+
+        // if height maps overlap, the first one wins
+        int first = Integer.MAX_VALUE;
+        for (Object candidate : elevationMapIndex.query(new Envelope(position.getX(), position.getX(), position.getY(), position.getY()))) {
+            int i = (Integer) candidate;
+            if (i < first && elevationMaps.get(i).covers(position)) {
+                first = i;
+            }
+        }
+
+        if (first < Integer.MAX_VALUE) {
+            return elevationMaps.get(first);
+        }
 
         throw new RuntimeException("Could not find height for coord: " + coord);
     }
 
+    private double getElevation(ElevationMap elevationMap, DirectPosition2D position) {
+
+        if (elevationMap.elevations == null) {
+            return elevationMap.getElevation(position);
+        }
+
+        long cell = elevationMap.getGridCell(position);
+        Double elevation = elevationMap.elevations.get(cell);
+        if (elevation != null) {
+            cacheHits.increment();
+            return elevation;
+        }
+
+        cacheMisses.increment();
+        double value = elevationMap.getElevation(cell);
+        // a full cache is cleared completely, see constructor. Misses lock the cache, so that concurrent lookups can't
+        // grow it beyond its size between the check and the put, while hits stay lock free.
+        synchronized (elevationMap.elevations) {
+            if (elevationMap.elevations.size() >= elevationMap.maxCachedElevations) {
+                elevationMap.elevations.clear();
+            }
+            elevationMap.elevations.put(cell, value);
+        }
+        return value;
+    }
+
+    long getTileLoads() {
+        return elevationMaps.stream().mapToLong(elevationMap -> elevationMap.tileLoads.sum()).sum();
+    }
+
+    long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public void logCacheStatistics() {
+
+        long hits = getCacheHits();
+        long misses = getCacheMisses();
+        if (hits + misses == 0) {
+            return;
+        }
+        log.info("Elevation cache: " + hits + " hits, " + misses + " misses, hit rate " + String.format("%.1f", 100. * hits / (hits + misses)) + "%");
+    }
+
     private static class ElevationMap {
 
         private final static Logger log = LogManager.getLogger(ElevationMap.class);
-        private final double[] outPixel = new double[1];
         private final GridCoverage2D coverage;
+        private final Envelope envelope;
+        private final int minGridX;
+        private final int maxGridX;
+        private final int minGridY;
+        private final int maxGridY;
+
+        // world to grid transformation, precomputed if the grid geometry is affine (which it is for geo tiffs)
+        private final AffineTransform worldToGrid;
+
+        // either the complete raster or the lazily loaded image with a bounded cache of its tiles. Tiles are loaded
+        // once per key, threads asking for a tile which is being loaded wait for its future. When the cache is full,
+        // the least recently used tile is evicted. Hits only stamp the tile with the time of the access, the
+        // eviction scans the few cached tiles on the next load, which reads a tile from disk anyway.
         private final Raster raster;
+        private final RenderedImage image;
+        private final Map<Long, Tile> tiles;
+        private final int maxCachedTiles;
+        private final LongAdder tileLoads = new LongAdder();
 
-        ElevationMap(String filename) {
+        // elevations by grid cell, null if caching is disabled
+        private final Map<Long, Double> elevations;
+        private final int maxCachedElevations;
+
+        ElevationMap(String filename, int maxCachedTiles, int maxCachedElevations) {
 
             log.info("Loading height map from: " + filename);
             try {
                 var file = new File(filename);
                 var reader = new GeoTiffReader(file);
                 coverage = reader.read(null);
-                log.info("Loading image data into memory. This may take a while if your geo tiff is large.");
-                raster = coverage.getRenderedImage().getData();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+
+            var envelope2D = coverage.getEnvelope2D();
+            envelope = new Envelope(envelope2D.getMinX(), envelope2D.getMaxX(), envelope2D.getMinY(), envelope2D.getMaxY());
+
+            var gridRange = coverage.getGridGeometry().getGridRange2D();
+            minGridX = gridRange.x;
+            maxGridX = gridRange.x + gridRange.width - 1;
+            minGridY = gridRange.y;
+            maxGridY = gridRange.y + gridRange.height - 1;
+
+            worldToGrid = createWorldToGrid(coverage.getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT));
+
+            if (maxCachedTiles > 0) {
+                log.info("Reading image data tile by tile, keeping at most " + maxCachedTiles + " tiles in memory.");
+                raster = null;
+                image = coverage.getRenderedImage();
+                tiles = new ConcurrentHashMap<>();
+            } else {
+                log.info("Loading image data into memory. This may take a while if your geo tiff is large.");
+                raster = coverage.getRenderedImage().getData();
+                image = null;
+                tiles = null;
+            }
+            this.maxCachedTiles = maxCachedTiles;
+
+            this.maxCachedElevations = maxCachedElevations;
+            elevations = maxCachedElevations > 0 ? new ConcurrentHashMap<>() : null;
+        }
+
+        private static AffineTransform createWorldToGrid(MathTransform2D gridToWorld) {
+
+            if (gridToWorld instanceof AffineTransform) {
+                try {
+                    return ((AffineTransform) gridToWorld).createInverse();
+                } catch (NoninvertibleTransformException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return null;
         }
 
         boolean covers(DirectPosition2D position) {
-            return coverage.getEnvelope2D().contains(position.getX(), position.getY());
+            return envelope.covers(position.getX(), position.getY());
         }
 
         double getElevation(DirectPosition2D position) {
+            return getElevation(getGridCell(position));
+        }
+
+        double getElevation(long gridCell) {
+
+            return getSample((int) (gridCell >> 32), (int) gridCell);
+        }
 
-            if (!coverage.getEnvelope2D().contains(position.getX(), position.getY())) {
+        double getInterpolatedElevation(DirectPosition2D position) {
+
+            if (!covers(position)) {
                 throw new IllegalArgumentException("position is not covered by height map. Test with 'covers' first");
             }
 
+            // without an affine grid geometry, fall back to the value of the cell
+            if (worldToGrid == null) {
+                return getElevation(position);
+            }
+
+            // continuous grid coordinates relative to the cell centers
+            double gridX = worldToGrid.getScaleX() * position.getX() + worldToGrid.getShearX() * position.getY() + worldToGrid.getTranslateX() - 0.5;
+            double gridY = worldToGrid.getShearY() * position.getX() + worldToGrid.getScaleY() * position.getY() + worldToGrid.getTranslateY() - 0.5;
+            int x0 = (int) Math.floor(gridX);
+            int y0 = (int) Math.floor(gridY);
+            double fx = gridX - x0;
+            double fy = gridY - y0;
+
+            // at the border of the map, the outermost cells are extended
+            int x1 = Math.min(Math.max(x0 + 1, minGridX), maxGridX);
+            int y1 = Math.min(Math.max(y0 + 1, minGridY), maxGridY);
+            x0 = Math.min(Math.max(x0, minGridX), maxGridX);
+            y0 = Math.min(Math.max(y0, minGridY), maxGridY);
+
+            double top = (1 - fx) * getSample(x0, y0) + fx * getSample(x1, y0);
+            double bottom = (1 - fx) * getSample(x0, y1) + fx * getSample(x1, y1);
+            return (1 - fy) * top + fy * bottom;
+        }
+
+        private double getSample(int x, int y) {
+
+            // read the sample directly instead of through a shared pixel buffer, so that maps can be queried concurrently
+            return getRaster(x, y).getSampleDouble(x, y, 0);
+        }
+
+        /**
+         * @return grid x in the upper and grid y in the lower 32 bits
+         */
+        long getGridCell(DirectPosition2D position) {
+
+            if (!covers(position)) {
+                throw new IllegalArgumentException("position is not covered by height map. Test with 'covers' first");
+            }
+
+            int x;
+            int y;
+            if (worldToGrid != null) {
+                x = (int) Math.floor(worldToGrid.getScaleX() * position.getX() + worldToGrid.getShearX() * position.getY() + worldToGrid.getTranslateX());
+                y = (int) Math.floor(worldToGrid.getShearY() * position.getX() + worldToGrid.getScaleY() * position.getY() + worldToGrid.getTranslateY());
+            } else {
+                try {
+                    var gridPosition = coverage.getGridGeometry().worldToGrid(position);
+                    x = gridPosition.x;
+                    y = gridPosition.y;
+                } catch (TransformException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            // positions on the max edges of the envelope map to one pixel beyond the image
+            x = Math.min(Math.max(x, minGridX), maxGridX);
+            y = Math.min(Math.max(y, minGridY), maxGridY);
+
+            return ((long) x << 32) | (y & 0xffffffffL);
+        }
+
+        private Raster getRaster(int x, int y) {
+
+            if (raster != null) {
+                return raster;
+            }
+
+            int tileX = Math.floorDiv(x - image.getTileGridXOffset(), image.getTileWidth());
+            int tileY = Math.floorDiv(y - image.getTileGridYOffset(), image.getTileHeight());
+            long key = ((long) tileX << 32) | (tileY & 0xffffffffL);
+
+            var tile = tiles.get(key);
+            if (tile == null) {
+                var loading = new Tile();
+                tile = tiles.putIfAbsent(key, loading);
+                if (tile == null) {
+                    // this thread has won the race for the key and loads the tile, without holding any lock
+                    tile = loading;
+                    load(key, loading, tileX, tileY);
+                }
+            }
+            tile.lastAccess = System.nanoTime();
+            return tile.raster.join();
+        }
+
+        private void load(long key, Tile loading, int tileX, int tileY) {
+
+            loading.lastAccess = System.nanoTime();
+            tileLoads.increment();
             try {
-                var gridPosition = coverage.getGridGeometry().worldToGrid(position);
-                raster.getPixel(gridPosition.x, gridPosition.y, outPixel);
-                return outPixel[0];
-            } catch (TransformException e) {
-                throw new RuntimeException(e);
+                loading.raster.complete(image.getTile(tileX, tileY));
+            } catch (RuntimeException e) {
+                // don't cache the failure, the next lookup tries again
+                tiles.remove(key, loading);
+                loading.raster.completeExceptionally(e);
+                throw e;
+            }
+
+            while (tiles.size() > maxCachedTiles) {
+                if (!evictLeastRecentlyUsed(loading)) break;
+            }
+        }
+
+        /**
+         * @return false if there was no tile to evict, because all other tiles are still being loaded
+         */
+        private boolean evictLeastRecentlyUsed(Tile loaded) {
+
+            Map.Entry<Long, Tile> leastRecentlyUsed = null;
+            for (var entry : tiles.entrySet()) {
+                var tile = entry.getValue();
+                if (tile != loaded && tile.raster.isDone()
+                        && (leastRecentlyUsed == null || tile.lastAccess < leastRecentlyUsed.getValue().lastAccess)) {
+                    leastRecentlyUsed = entry;
+                }
             }
+            if (leastRecentlyUsed == null) return false;
+
+            // another loading thread may have evicted the same tile in the meantime, then the loop simply goes on
+            tiles.remove(leastRecentlyUsed.getKey(), leastRecentlyUsed.getValue());
+            return true;
         }
     }
+
+    private static class Tile {
+
+        private final CompletableFuture<Raster> raster = new CompletableFuture<>();
+        private volatile long lastAccess;
+    }
 }
@@ -0,0 +1,216 @@
+package org.matsim.stuttgart.prepare;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Caches the attributes added by {@link PrepareTransitSchedule} and {@link AddAdditionalNetworkAttributes}, so that the
+ * shape files do not have to be intersected with the schedule and the network on every run.
+ *
+ * The cache key is a SHA-256 checksum over the network, the transit schedule and the shape files (including their
+ * .dbf, .shx and .prj files). Only the added attributes are stored, in a compact gzipped binary file per key.
+ * Network and schedule themselves are still read from their original files.
+ *
+ * The key does not cover the code which computes the attributes. {@link #FORMAT_VERSION} is part of the key and has to
+ * be bumped whenever the enrichment logic or the file format changes, otherwise stale attributes are read from the cache.
+ */
+
+public class EnrichedScenarioCache {
+
+    private static final Logger log = LogManager.getLogger(EnrichedScenarioCache.class);
+    // bump on every change of the enrichment logic or the file format, see class comment
+    private static final int FORMAT_VERSION = 1;
+    private static final String[] SHAPE_FILE_EXTENSIONS = new String[]{".dbf", ".shx", ".prj"};
+
+    private final Path cacheDirectory;
+
+    public EnrichedScenarioCache(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public static String computeKey(URL networkFile, URL transitScheduleFile, String... shapeFiles) {
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Integer.toString(FORMAT_VERSION).getBytes());
+
+            List<URL> inputs = new ArrayList<>(List.of(networkFile, transitScheduleFile));
+            for (String shapeFile : shapeFiles) {
+                inputs.add(Path.of(shapeFile).toUri().toURL());
+                String basePath = shapeFile.substring(0, shapeFile.length() - ".shp".length());
+                for (String extension : SHAPE_FILE_EXTENSIONS) {
+                    Path sidecarFile = Path.of(basePath + extension);
+                    if (Files.exists(sidecarFile)) inputs.add(sidecarFile.toUri().toURL());
+                }
+            }
+
+            byte[] buffer = new byte[1 << 16];
+            for (URL input : inputs) {
+                try (var in = new DigestInputStream(input.openStream(), digest)) {
+                    while (in.read(buffer) != -1) {
+                        // reading updates the digest
+                    }
+                }
+            }
+
+            return HexFormat.of().formatHex(digest.digest());
+
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return true if a cache entry for the key exists and was applied to the scenario, false otherwise
+     */
+    public boolean load(Scenario scenario, String key) {
+
+        Path file = getCacheFile(key);
+        if (!Files.exists(file)) {
+            return false;
+        }
+
+        log.info("Loading enriched network and schedule attributes from cache: " + file);
+        var stops = new ArrayList<StopAttributes>();
+        var links = new ArrayList<LinkAttributes>();
+
+        try (var in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                log.warn("Cache file has an outdated format and is ignored.");
+                return false;
+            }
+
+            int numberOfStops = in.readInt();
+            for (int i = 0; i < numberOfStops; i++) {
+                var stop = new StopAttributes(scenario.getTransitSchedule().getFacilities().get(Id.create(in.readUTF(), TransitStopFacility.class)));
+                stop.fareZone = in.readUTF();
+                stop.bikeAndRide = in.readBoolean();
+                stops.add(stop);
+            }
+
+            int numberOfLinks = in.readInt();
+            for (int i = 0; i < numberOfLinks; i++) {
+                var link = new LinkAttributes(scenario.getNetwork().getLinks().get(Id.createLinkId(in.readUTF())));
+                for (int j = 0; j < link.values.length; j++) {
+                    link.values[j] = in.readDouble();
+                }
+                link.zoneName = in.readUTF();
+                link.zoneGroup = in.readUTF();
+                links.add(link);
+            }
+
+        } catch (IOException e) {
+            log.warn("Cache file could not be read and is ignored: " + e.getMessage());
+            return false;
+        }
+
+        if (stops.stream().anyMatch(stop -> stop.facility == null) || links.stream().anyMatch(link -> link.link == null)) {
+            log.warn("Cache file does not match the scenario and is ignored.");
+            return false;
+        }
+
+        for (StopAttributes stop : stops) {
+            stop.facility.getAttributes().putAttribute("ptFareZone", stop.fareZone);
+            stop.facility.getAttributes().putAttribute("VVSBikeAndRide", stop.bikeAndRide);
+        }
+        for (LinkAttributes link : links) {
+            for (int j = 0; j < link.values.length; j++) {
+                link.link.getAttributes().putAttribute(LinkAttributes.NAMES[j], link.values[j]);
+            }
+            link.link.getAttributes().putAttribute("zoneName", link.zoneName);
+            link.link.getAttributes().putAttribute("zoneGroup", link.zoneGroup);
+        }
+
+        log.info("Applied cached attributes to " + stops.size() + " stop facilities and " + links.size() + " links.");
+        return true;
+    }
+
+    public void write(Scenario scenario, String key) {
+
+        Path file = getCacheFile(key);
+        log.info("Writing enriched network and schedule attributes to cache: " + file);
+
+        try {
+            Files.createDirectories(cacheDirectory);
+
+            // write to a temporary file first, so that concurrent runs never see a half written cache file
+            Path tmpFile = Files.createTempFile(cacheDirectory, key, ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmpFile))))) {
+                out.writeInt(FORMAT_VERSION);
+
+                var facilities = scenario.getTransitSchedule().getFacilities().values();
+                out.writeInt(facilities.size());
+                for (TransitStopFacility facility : facilities) {
+                    out.writeUTF(facility.getId().toString());
+                    out.writeUTF(facility.getAttributes().getAttribute("ptFareZone").toString());
+                    out.writeBoolean((Boolean) facility.getAttributes().getAttribute("VVSBikeAndRide"));
+                }
+
+                // only links which got parking attributes, i.e. non pt links
+                var links = new ArrayList<Link>();
+                for (Link link : scenario.getNetwork().getLinks().values()) {
+                    if (link.getAttributes().getAttribute(LinkAttributes.NAMES[0]) != null) links.add(link);
+                }
+                out.writeInt(links.size());
+                for (Link link : links) {
+                    out.writeUTF(link.getId().toString());
+                    for (String name : LinkAttributes.NAMES) {
+                        out.writeDouble((Double) link.getAttributes().getAttribute(name));
+                    }
+                    out.writeUTF(link.getAttributes().getAttribute("zoneName").toString());
+                    out.writeUTF(link.getAttributes().getAttribute("zoneGroup").toString());
+                }
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            // a missing cache is not fatal, the next run simply enriches the scenario again
+            log.warn("Could not write cache file: " + e.getMessage());
+        }
+    }
+
+    Path getCacheFile(String key) {
+        return cacheDirectory.resolve("enrichedScenario-" + key + ".bin.gz");
+    }
+
+    private static class StopAttributes {
+
+        private final TransitStopFacility facility;
+        private String fareZone;
+        private boolean bikeAndRide;
+
+        StopAttributes(TransitStopFacility facility) {
+            this.facility = facility;
+        }
+    }
+
+    private static class LinkAttributes {
+
+        private static final String[] NAMES = new String[]{"oneHourPCost", "extraHourPCost", "maxDailyPCost", "maxPTime", "pFine", "resPCosts"};
+
+        private final Link link;
+        private final double[] values = new double[NAMES.length];
+        private String zoneName;
+        private String zoneGroup;
+
+        LinkAttributes(Link link) {
+            this.link = link;
+        }
+    }
+}
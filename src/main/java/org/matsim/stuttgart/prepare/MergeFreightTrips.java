@@ -25,15 +25,15 @@ import java.util.stream.Collectors;
 public class MergeFreightTrips {
     private static final Logger log = LogManager.getLogger(MergeFreightTrips.class);
 
-    private static final String freightDataDirectory = "projects\\german-wide-freight\\v1.1\\german-wide-freight-25pct.xml.gz";
-    private static final String networkPath = "projects\\german-wide-freight\\original-data\\german-primary-road.network.xml.gz";
-    private static final String shapeFilePath = "projects\\matsim-stuttgart\\stuttgart-v0.0-snz-original\\stuttgart_umland_5677.shp";
+    static final String freightDataDirectory = "projects\\german-wide-freight\\v1.1\\german-wide-freight-25pct.xml.gz";
+    static final String networkPath = "projects\\german-wide-freight\\original-data\\german-primary-road.network.xml.gz";
+    static final String shapeFilePath = "projects\\matsim-stuttgart\\stuttgart-v0.0-snz-original\\stuttgart_umland_5677.shp";
     private static final String inputCrs = "EPSG:5677";
     private static final String outputCrs = "EPSG:25832";
 
-    private static final String freightPopOutputPath = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\population-25pct-stuttgart-freight-only.xml.gz";
-    private static final String populationInputPath = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\optimizedPopulationCleaned.xml.gz";
-    private static final String populationOutputPath = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\optimizedPopulationWithFreight.xml.gz";
+    static final String freightPopOutputPath = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\population-25pct-stuttgart-freight-only.xml.gz";
+    static final String populationInputPath = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\optimizedPopulationCleaned.xml.gz";
+    static final String populationOutputPath = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\optimizedPopulationWithFreight.xml.gz";
 
 
     public static void main(String[] args) {
@@ -95,6 +95,7 @@ public class MergeFreightTrips {
                 .forEach(activity -> {
                     activity.setCoord(Utils.addElevationIfNecessary(activity.getCoord(), elevationReader));
                 });
+        elevationReader.logCacheStatistics();
 
         new PopulationWriter(inputScenario.getPopulation()).write(svn.resolve(populationOutputPath).toString());
 
@@ -1,29 +1,37 @@
 package org.matsim.stuttgart.prepare;
 
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.contrib.bicycle.BicycleUtils;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.gis.ShapeFileReader;
+import org.matsim.stuttgart.PreparedFeatureIndex;
 
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Paths;
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class PrepareBikeFriendlyScenario {
 
+    private static final Logger log = LogManager.getLogger(PrepareBikeFriendlyScenario.class);
+
     private static final String inputNetwork = "input/stuttgart-v3.0/matsim-stuttgart-v3.0.network.xml.gz";
     private static final String outputNetwork = "input/stuttgart-v3.0/matsim-stuttgart-v3.0.bikeFriendlyNetwork.xml.gz";
 
+    // way types which get a cycle track if they don't have one yet
+    private static final Set<String> upgradedWayTypes = Set.of("primary", "primary_link", "secondary", "secondary_link", "tertiary", "tertiary_link");
+    private static final Set<String> existingTracks = Set.of("track", "track;opposite_track", "track;opposite_lane", "opposite_track");
+
     public static void main(String[] args) throws MalformedURLException {
 
         var svn = Paths.get("C:/users/schim/IdeaProjects/matsim-stuttgart");
@@ -31,62 +39,90 @@ public class PrepareBikeFriendlyScenario {
         Network net = NetworkUtils.readNetwork(svn.resolve(inputNetwork).toString());
 
         URL shapeUrl = new URL("https://svn.vsp.tu-berlin.de/repos/public-svn/matsim/scenarios/countries/de/stuttgart/stuttgart-v2.0-10pct/input/lh-stuttgart.shp");
-        var dilutionArea = getDilutionArea(shapeUrl);
-
-        for (Link link : net.getLinks().values()) {
-
-            if (
-                    link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE) != null &&
-                            (
-                                    link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE).equals("primary") ||
-                                            link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE).equals("primary_link") ||
-                                            link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE).equals("secondary") ||
-                                            link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE).equals("secondary_link") ||
-                                            link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE).equals("tertiary") ||
-                                            link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE).equals("tertiary_link")
-                            )
-                            && link.getAllowedModes().contains(TransportMode.bike)
-                            && link.getAllowedModes().contains(TransportMode.car)
-                            && dilutionArea.stream().anyMatch(geometry -> geometry.covers(MGC.coord2Point(link.getFromNode().getCoord())))
-                            && dilutionArea.stream().anyMatch(geometry -> geometry.covers(MGC.coord2Point(link.getToNode().getCoord())))
-            ) {
-
-                if (!(link.getAttributes().getAttribute(BicycleUtils.CYCLEWAY) != null && (
-                        link.getAttributes().getAttribute(BicycleUtils.CYCLEWAY).equals("track") ||
-                                link.getAttributes().getAttribute(BicycleUtils.CYCLEWAY).equals("track;opposite_track") ||
-                                link.getAttributes().getAttribute(BicycleUtils.CYCLEWAY).equals("track;opposite_lane") ||
-                                link.getAttributes().getAttribute(BicycleUtils.CYCLEWAY).equals("opposite_track")
-                ))) {
-
-                    //determine capacity of new bicycle Link
-                    Double capaNewLink = determineNewLinkCapa(link);
-
-                    //reduce capa of old link by capa of new Link; reduce number of lanes on old links if they have at least 2 lanes
-                    link.setCapacity(link.getCapacity() - capaNewLink);
-                    if (link.getNumberOfLanes() >= 2.) {
-                        link.setNumberOfLanes(link.getNumberOfLanes() - 1.);
-                    }
-
-                    //create new bike links
-                    Link newLink = net.getFactory().createLink(Id.createLinkId(link.getId() + "_cycleway"), link.getFromNode(), link.getToNode());
-                    newLink.setCapacity(capaNewLink);
-                    newLink.getAttributes().putAttribute(BicycleUtils.WAY_TYPE, link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE));
-                    newLink.getAttributes().putAttribute(BicycleUtils.CYCLEWAY, "track");
-                    newLink.getAttributes().putAttribute(BicycleUtils.SURFACE, "asphalt");
-                    var allowedModes = new HashSet<String>();
-                    allowedModes.add(TransportMode.bike);
-                    newLink.setAllowedModes(allowedModes);
-
-                    //add new bike links to network
-                    net.addLink(newLink);
-
-                }
+        var dilutionArea = new PreparedFeatureIndex<>(ShapeFileReader.getAllFeatures(shapeUrl), feature -> true);
+
+        addCycleways(net, getNodesInArea(net, dilutionArea));
+
+        NetworkUtils.writeNetwork(net, svn.resolve(outputNetwork).toString());
+
+    }
+
+    /**
+     * Adds a bike-only link next to each primary, secondary and tertiary link within the area which allows car and
+     * bike but has no cycle track yet. Capacity and lanes of the original link are reduced accordingly.
+     *
+     * @param nodesInArea bit set over Id<Node>.index() of the nodes within the area. Links are only changed if both
+     *                    of their nodes are within the area.
+     */
+    static void addCycleways(Network net, BitSet nodesInArea) {
+
+        // collect the links first, since new links can't be added to the network while iterating over its links
+        List<Link> upgradedLinks = net.getLinks().values().stream()
+                .filter(link -> isUpgraded(link, nodesInArea))
+                .collect(Collectors.toList());
+
+        for (Link link : upgradedLinks) {
+
+            //determine capacity of new bicycle Link
+            Double capaNewLink = determineNewLinkCapa(link);
+
+            //reduce capa of old link by capa of new Link; reduce number of lanes on old links if they have at least 2 lanes
+            link.setCapacity(link.getCapacity() - capaNewLink);
+            if (link.getNumberOfLanes() >= 2.) {
+                link.setNumberOfLanes(link.getNumberOfLanes() - 1.);
             }
 
+            //create new bike links
+            Link newLink = net.getFactory().createLink(Id.createLinkId(link.getId() + "_cycleway"), link.getFromNode(), link.getToNode());
+            newLink.setCapacity(capaNewLink);
+            newLink.getAttributes().putAttribute(BicycleUtils.WAY_TYPE, link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE));
+            newLink.getAttributes().putAttribute(BicycleUtils.CYCLEWAY, "track");
+            newLink.getAttributes().putAttribute(BicycleUtils.SURFACE, "asphalt");
+            var allowedModes = new HashSet<String>();
+            allowedModes.add(TransportMode.bike);
+            newLink.setAllowedModes(allowedModes);
+
+            //add new bike links to network
+            net.addLink(newLink);
         }
+        log.info("Added " + upgradedLinks.size() + " cycleways.");
+    }
 
-        NetworkUtils.writeNetwork(net, svn.resolve(outputNetwork).toString());
+    private static boolean isUpgraded(Link link, BitSet nodesInArea) {
+
+        // Set.of doesn't accept null in contains, so missing attributes have to be checked first
+        Object wayType = link.getAttributes().getAttribute(BicycleUtils.WAY_TYPE);
+        if (wayType == null || !upgradedWayTypes.contains(wayType)) return false;
+
+        Object cycleway = link.getAttributes().getAttribute(BicycleUtils.CYCLEWAY);
+        if (cycleway != null && existingTracks.contains(cycleway)) return false;
 
+        return link.getAllowedModes().contains(TransportMode.bike)
+                && link.getAllowedModes().contains(TransportMode.car)
+                && nodesInArea.get(link.getFromNode().getId().index())
+                && nodesInArea.get(link.getToNode().getId().index());
+    }
+
+    /**
+     * Tests all nodes against the area once and in parallel, so that links sharing a node don't repeat the test.
+     *
+     * @return bit set over Id<Node>.index() of the nodes within the area
+     */
+    static BitSet getNodesInArea(Network net, PreparedFeatureIndex<?> area) {
+
+        int[] indices = net.getNodes().values().parallelStream()
+                .filter(node -> area.covers(node.getCoord()))
+                .mapToInt(node -> node.getId().index())
+                .toArray();
+
+        // setting the bits has to be sequential, BitSet is not thread-safe
+        var result = new BitSet(Id.getNumberOfIds(Node.class));
+        for (int index : indices) {
+            result.set(index);
+        }
+
+        log.info(indices.length + " of " + net.getNodes().size() + " nodes are within the dilution area.");
+        return result;
     }
 
     private static Double determineNewLinkCapa(Link oldLink) {
@@ -106,22 +142,4 @@ public class PrepareBikeFriendlyScenario {
 
 
     }
-
-    private static Collection<PreparedGeometry> getDilutionArea(URL shapeFile) {
-
-        var factory = new PreparedGeometryFactory();
-       /* var fromCRS = CRS.decode("EPSG:5677");
-        var toCRS = CRS.decode("EPSG:25832");
-        var transformation = CRS.findMathTransform(fromCRS, toCRS);
-
-        */
-
-        return ShapeFileReader.getAllFeatures(shapeFile).stream()
-                .map(simpleFeature -> (Geometry) simpleFeature.getDefaultGeometry())
-                //.map(geometry -> transform(geometry, transformation))
-                .map(factory::create)
-                .collect(Collectors.toSet());
-
-    }
-
 }
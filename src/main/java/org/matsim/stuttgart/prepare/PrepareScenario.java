@@ -1,65 +1,137 @@
 package org.matsim.stuttgart.prepare;
 
-import org.matsim.application.prepare.freight.tripExtraction.ExtractRelevantFreightTrips;
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
 import org.matsim.core.utils.geometry.transformations.TransformationFactory;
-import org.matsim.stuttgart.Utils;
-import picocli.CommandLine;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Runs all preparation steps as a task graph. Steps which don't depend on each other run in parallel, and steps whose
+ * outputs are newer than their inputs are skipped, so that after changing an input only the affected steps are redone.
+ * Pass -force to redo everything.
+ */
 public class PrepareScenario {
-    private static final Collection<String> elevationData = List.of("projects\\matsim-stuttgart\\stuttgart-v2.0\\raw-data\\heightmaps\\srtm_38_03.tif", "projects\\matsim-stuttgart\\stuttgart-v2.0\\raw-data\\heightmaps\\srtm_39_03.tif");
-    private static final CoordinateTransformation transformUTM32ToWGS84 = TransformationFactory.getCoordinateTransformation("EPSG:25832", "EPSG:4326");
-    private static final String filename = "matsim-stuttgart-v2.0";
+    static final Collection<String> elevationData = List.of("projects\\matsim-stuttgart\\stuttgart-v2.0\\raw-data\\heightmaps\\srtm_38_03.tif", "projects\\matsim-stuttgart\\stuttgart-v2.0\\raw-data\\heightmaps\\srtm_39_03.tif");
+    static final CoordinateTransformation transformUTM32ToWGS84 = TransformationFactory.getCoordinateTransformation("EPSG:25832", "EPSG:4326");
 
     public static void main(String[] args) {
 
-        var arguments = Utils.parseSharedSvn(args);
-        var svn = Paths.get(arguments.getSharedSvn());
+        var input = new Input();
+        JCommander.newBuilder().addObject(input).build().parse(args);
+
+        createTaskGraph(Paths.get(input.sharedSvn)).run(input.parallelTasks, input.force);
+    }
+
+    static TaskGraph createTaskGraph(Path svn) {
 
-        // create elevationReader on this level as it is needed for several z-coord additions
         var elevationDataPaths = elevationData.stream()
                 .map(svn::resolve)
-                .map(Path::toString)
                 .collect(Collectors.toList());
-        var elevationReader = new ElevationReader(elevationDataPaths, transformUTM32ToWGS84);
 
-        // have this scope so that the network can be collected by GC if not enough memory
-        {
-            // get network from osm
-            var network = CreateNetwork.createNetwork(svn, elevationReader);
+        // the elevation reader is shared by the network, population and facilities branches, but only created if one
+        // of them actually has to run
+        var elevationReader = new Supplier<ElevationReader>() {
+
+            private ElevationReader reader;
+
+            @Override
+            public synchronized ElevationReader get() {
+                if (reader == null) {
+                    var filenames = elevationDataPaths.stream().map(Path::toString).collect(Collectors.toList());
+                    reader = new ElevationReader(filenames, transformUTM32ToWGS84);
+                }
+                return reader;
+            }
+        };
+
+        var graph = new TaskGraph();
+
+        // get network from osm, write pt schedule files and add pt routes to the network, then write the network
+        // with pt. This is one task since the network is passed on in memory.
+        graph.add("network and pt",
+                concat(resolve(svn, CreateNetwork.osmFile, CreateNetwork.senozonNetworkPath, CreatePt.schedule), elevationDataPaths),
+                resolve(svn, CreateNetwork.outputNetwork, CreatePt.transitSchedule, CreatePt.transitVehicles),
+                () -> {
+                    var network = CreateNetwork.createNetwork(svn, elevationReader.get());
+                    CreatePt.create(svn, network, elevationReader.get());
+                    CreateNetwork.writeNetwork(network, svn);
+                });
 
-            // write pt schedule files and at pt routes to the network
-            CreatePt.create(svn, network, elevationReader);
+        // Extract freight trips population
+        var freight = graph.add("extract freight trips",
+                resolve(svn, MergeFreightTrips.freightDataDirectory, MergeFreightTrips.networkPath, MergeFreightTrips.shapeFilePath),
+                resolve(svn, MergeFreightTrips.freightPopOutputPath),
+                () -> MergeFreightTrips.extractRelevantFreightTrips(svn));
+
+        // print statistics about original population, then clean it from old network references and save it. The
+        // statistics are part of this task, so that they are only printed if the population has changed.
+        var population = graph.add("clean population",
+                resolve(svn, CleanPopulation.inputPopulation, CheckPopulation.inputPopulation, CheckPopulation.shapeFilePath),
+                resolve(svn, CleanPopulation.outputPopulation),
+                () -> {
+                    CheckPopulation.check(svn);
+                    CleanPopulation.cleanStreaming(svn);
+                });
 
-            // write the network with pt
-            CreateNetwork.writeNetwork(network, svn);
-        }
+        // Merge cleaned population and freight population
+        var merged = graph.add("merge freight trips",
+                concat(resolve(svn, MergeFreightTrips.populationInputPath, MergeFreightTrips.freightPopOutputPath), elevationDataPaths),
+                resolve(svn, MergeFreightTrips.populationOutputPath),
+                () -> MergeFreightTrips.mergePopulationFiles(svn, elevationReader.get()),
+                freight, population);
 
-        // print statistics about original population
-        CheckPopulation.check(svn);
+        // Create downscaled populations
+        graph.add("create downsamples",
+                resolve(svn, ReducePopulation.inputPopulation),
+                Stream.of(25, 10, 1, 0).map(percentage -> ReducePopulation.getOutputPopulation(svn, percentage)).collect(Collectors.toList()),
+                () -> ReducePopulation.createDownsamples(svn),
+                merged);
+
+        // clean facilities from old network references, add their elevation and save them
+        graph.add("clean facilities",
+                concat(resolve(svn, CleanFacilities.inputFacilities), elevationDataPaths),
+                resolve(svn, CleanFacilities.outputFacilities),
+                () -> CleanFacilities.clean(svn, elevationReader.get()));
 
-        // Extract freight trips population
-        MergeFreightTrips.extractRelevantFreightTrips(svn);
+        // create vehicles
+        graph.add("create vehicle types",
+                List.of(),
+                resolve(svn, CreateVehicleTypes.vehiclesFile),
+                () -> CreateVehicleTypes.create(svn));
 
-        // clean population from old network references and save it
-        CleanPopulation.clean(svn);
+        return graph;
+    }
 
-        // Merge cleaned population and freight population
-        MergeFreightTrips.mergePopulationFiles(svn, elevationReader);
+    private static List<Path> resolve(Path svn, String... files) {
+        return Stream.of(files).map(svn::resolve).collect(Collectors.toList());
+    }
 
-        // Create downscaled populations
-        ReducePopulation.createDownsamples(svn);
+    private static List<Path> concat(List<Path> first, List<Path> second) {
+        var result = new ArrayList<>(first);
+        result.addAll(second);
+        return result;
+    }
 
-        // clean facilities from old network references and save it
-        CleanFacilities.clean(svn);
+    @SuppressWarnings("FieldMayBeFinal")
+    private static class Input {
 
-        // create vehicles
-        CreateVehicleTypes.create(svn);
+        @Parameter(names = "-sharedSvn", required = true)
+        private String sharedSvn;
+
+        // the network and the population branch both need a lot of memory, so only run two tasks at a time by default
+        @Parameter(names = "-parallelTasks")
+        private int parallelTasks = 2;
+
+        @Parameter(names = "-force")
+        private boolean force = false;
     }
 }
@@ -4,20 +4,17 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Point;
-import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.scenario.ScenarioUtils;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
 import org.matsim.pt.transitSchedule.api.TransitScheduleWriter;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.stuttgart.PreparedFeatureIndex;
 import org.opengis.feature.simple.SimpleFeature;
 
 import java.util.*;
@@ -61,15 +58,16 @@ public class PrepareTransitSchedule {
     public void run(Scenario scenario, String shapeFile) {
 
         TransitSchedule schedule = scenario.getTransitSchedule();
-        Collection<SimpleFeature> fareZoneFeatures = ShapeFileReader.getAllFeatures(shapeFile);
+        PreparedFeatureIndex<String> fareZones = createFareZoneIndex(ShapeFileReader.getAllFeatures(shapeFile));
 
         log.info("Start manipulating transit facility attributes ...");
         // Create map with all bikeAndRideAssignments in vvs area
         Set<Id<TransitStopFacility>> bikeAndRideAssignment = tagBikeAndRide(schedule);
 
-        for (var transitStopFacility: schedule.getFacilities().values()){
+        // every facility is only touched by one thread, so attributes may be written in parallel
+        schedule.getFacilities().values().parallelStream().forEach(transitStopFacility -> {
 
-            String fareZone = findFareZone(transitStopFacility, fareZoneFeatures);
+            String fareZone = findFareZone(transitStopFacility, fareZones);
             transitStopFacility.getAttributes().putAttribute("ptFareZone", fareZone);
 
             // Facilities in vvs zone are considered only
@@ -85,32 +83,24 @@ public class PrepareTransitSchedule {
 
             }
 
-        }
+        });
 
         log.info("Fare zones manipulated successfully!");
 
     }
 
 
-    private String findFareZone(TransitStopFacility transitStopFacility, Collection<SimpleFeature> features) {
-
-        // Facilities which are not whithin the fare zone shapes are located outside of vvs area and thus marked accordingly
-        String fareZone = "out";
-
-        Coord homeCoord = transitStopFacility.getCoord();
-        Point point = MGC.coord2Point(homeCoord);
-
-        for (SimpleFeature feature : features ) {
-
-            Geometry geometry = (Geometry) feature.getDefaultGeometry();
+    static PreparedFeatureIndex<String> createFareZoneIndex(Collection<SimpleFeature> features) {
+        return new PreparedFeatureIndex<>(features, feature -> feature.getAttribute("FareZone").toString());
+    }
 
-            if (geometry.covers(point)) {
-                fareZone = feature.getAttribute("FareZone").toString();
-            }
 
-        }
+    static String findFareZone(TransitStopFacility transitStopFacility, PreparedFeatureIndex<String> fareZones) {
 
-        return fareZone;
+        // Facilities which are not whithin the fare zone shapes are located outside of vvs area and thus marked accordingly
+        // If zone shapes overlap, the last zone in the shape file wins
+        String fareZone = fareZones.getLast(transitStopFacility.getCoord());
+        return fareZone == null ? "out" : fareZone;
 
     }
 
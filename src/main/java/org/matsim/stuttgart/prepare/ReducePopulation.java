@@ -4,24 +4,26 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.population.PopulationUtils;
-import org.matsim.core.population.io.PopulationReader;
 import org.matsim.core.population.io.PopulationWriter;
 import org.matsim.core.population.io.StreamingPopulationReader;
 import org.matsim.core.population.io.StreamingPopulationWriter;
 import org.matsim.core.scenario.ScenarioUtils;
 
 import java.nio.file.Path;
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class ReducePopulation {
     private static final Logger log = LogManager.getLogger(ReducePopulation.class);
 
-    private static final Random random = new Random();
-    private static final String inputPopulation = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\optimizedPopulationWithFreight.xml.gz";
+    private static final long SAMPLING_SEED = 4711;
+    static final String inputPopulation = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\optimizedPopulationWithFreight.xml.gz";
     private static final String outputPopulation = "projects\\matsim-stuttgart\\stuttgart-v2.0\\input\\matsim-stuttgart-v2.0-%dpct.plans.xml.gz";
 
 
@@ -44,36 +46,147 @@ public class ReducePopulation {
         }
     }
 
+    /**
+     * Reads the population once and writes all samples in the same pass, each by its own writer thread. A person is
+     * part of a sample if its sampling value is below the fraction of the sample. Sampling values are derived from the
+     * person id and a fixed seed, so the samples are reproducible and each sample is a subset of the larger ones.
+     */
     public static void createDownsamples(Path sharedSvn){
-        Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
 
-        log.info("loading population");
-        new PopulationReader(scenario).readFile(sharedSvn.resolve(inputPopulation).toString());
+        Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+        StreamingPopulationReader reader = new StreamingPopulationReader(scenario);
 
-        scenario.getPopulation().getAttributes().putAttribute("coordinateReferenceSystem", "epsg:25832");
+        // the input is a 25pct population, which is written completely
+        var samples = List.of(
+                new SampleWriter(1., getOutputPopulation(sharedSvn, 25).toString()),
+                new SampleWriter(0.4, getOutputPopulation(sharedSvn, 10).toString()),
+                new SampleWriter(0.04, getOutputPopulation(sharedSvn, 1).toString()),
+                new SampleWriter(0.004, getOutputPopulation(sharedSvn, 0).toString()));
+
+        reader.addAlgorithm(person -> {
+            double value = getSamplingValue(person.getId(), SAMPLING_SEED);
+            for (SampleWriter sample : samples) {
+                if (value < sample.fraction) {
+                    sample.add(person);
+                }
+            }
+        });
 
         log.info("write reduced populations");
-        new PopulationWriter(scenario.getPopulation()).write(sharedSvn.resolve(String.format(outputPopulation, 25)).toString());
+        samples.forEach(SampleWriter::start);
+        try {
+            reader.readFile(sharedSvn.resolve(inputPopulation).toString());
+        } finally {
+            finish(samples);
+        }
+    }
+
+    /**
+     * Ends all samples and waits for all writer threads, even if some of them have failed, so that no writer is left
+     * waiting for more persons. Rethrows the first failure afterwards.
+     */
+    private static void finish(List<SampleWriter> samples) {
 
-        writeReducedPopulation(scenario, 0.4, sharedSvn.resolve(String.format(outputPopulation, 10)).toString());
-        writeReducedPopulation(scenario, 0.04, sharedSvn.resolve(String.format(outputPopulation, 1)).toString());
-        writeReducedPopulation(scenario, 0.004, sharedSvn.resolve(String.format(outputPopulation, 0)).toString());
+        samples.forEach(SampleWriter::endPopulation);
+
+        Throwable failure = null;
+        for (SampleWriter sample : samples) {
+            sample.join();
+            if (failure == null) failure = sample.exception;
+        }
 
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new RuntimeException(failure);
     }
 
-    private static void writeReducedPopulation(Scenario scenario, double fractionOfOriginal, String outputPath) {
-        log.info(String.format("write population as fraction of original: %f", fractionOfOriginal));
+    /**
+     * @return a value in [0, 1) which only depends on the person id and the seed
+     */
+    static double getSamplingValue(Id<Person> personId, long seed) {
+
+        // String.hashCode is specified and thus stable across jvms, mix it with the murmur3 finalizer
+        long hash = seed ^ personId.toString().hashCode();
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        hash = hash ^ (hash >>> 33);
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    static Path getOutputPopulation(Path sharedSvn, int percentage) {
+        return sharedSvn.resolve(String.format(outputPopulation, percentage));
+    }
 
-        var reducedPopulation = PopulationUtils.createPopulation(ConfigUtils.createConfig());
-        for (Person person : scenario.getPopulation().getPersons().values()) {
+    /**
+     * Writes one sample in a thread of its own, so that the samples are compressed concurrently.
+     */
+    private static class SampleWriter {
 
-            if (random.nextDouble() <= fractionOfOriginal) {
-                reducedPopulation.addPerson(person);
+        // a plain object rather than a person, so that no id is added to the global person id index
+        private static final Object END_OF_POPULATION = new Object();
+
+        private final double fraction;
+        private final String outputPath;
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(10000);
+        private final Thread thread;
+        private volatile Throwable exception;
+
+        SampleWriter(double fraction, String outputPath) {
+            this.fraction = fraction;
+            this.outputPath = outputPath;
+            this.thread = new Thread(this::write, "ReducePopulation-" + fraction);
+        }
+
+        void start() {
+            log.info(String.format("write population as fraction of original: %f", fraction));
+            thread.start();
+        }
+
+        void add(Person person) {
+            if (exception != null) throw new RuntimeException("Writing " + outputPath + " failed.", exception);
+            try {
+                queue.put(person);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
             }
         }
 
-        new PopulationWriter(reducedPopulation).write(outputPath);
+        void endPopulation() {
+            try {
+                // don't block forever, if the writer has already failed and stopped taking persons
+                if (exception == null) queue.put(END_OF_POPULATION);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void join() {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
 
+        private void write() {
+
+            // the population is only used for the header, it carries the crs of the written persons
+            var header = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+            header.getAttributes().putAttribute("coordinateReferenceSystem", "epsg:25832");
+            var writer = new PopulationWriter(header);
+
+            try {
+                writer.writeStartPlans(outputPath);
+                for (var element = queue.take(); element != END_OF_POPULATION; element = queue.take()) {
+                    writer.writePerson((Person) element);
+                }
+                writer.writeEndPlans();
+            } catch (Throwable e) {
+                exception = e;
+                // unblock the reader, the remaining persons are discarded
+                queue.clear();
+            }
+        }
     }
 
     private static class Input {
@@ -0,0 +1,140 @@
+package org.matsim.stuttgart.prepare;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs preparation steps as a graph of tasks. Each task declares the files it reads and writes and the tasks it
+ * depends on. A task starts as soon as all of its dependencies are done, so independent branches run in parallel.
+ * Tasks whose outputs all exist and are newer than all of their inputs are skipped. A task which runs writes outputs
+ * newer than the outputs of the tasks downstream, so everything depending on a changed file is redone. The outputs of
+ * a failed task are deleted, so that partially written files are never taken as up-to-date by the next run.
+ */
+class TaskGraph {
+
+    private static final Logger log = LogManager.getLogger(TaskGraph.class);
+
+    private final List<Task> tasks = new ArrayList<>();
+
+    /**
+     * Adds a task. Dependencies have to be added before the tasks which depend on them.
+     *
+     * @param outputs files written by the task. Tasks without outputs are always run.
+     */
+    Task add(String name, List<Path> inputs, List<Path> outputs, Runnable action, Task... dependencies) {
+        var task = new Task(name, inputs, outputs, action, List.of(dependencies));
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Runs all tasks and waits for them to finish. If a task fails, the tasks depending on it are not started, but
+     * all other branches are finished before the failure is rethrown.
+     *
+     * @param parallelism maximum number of tasks running at the same time
+     * @param force       run all tasks even if they are up-to-date
+     */
+    void run(int parallelism, boolean force) {
+
+        var executor = Executors.newFixedThreadPool(parallelism);
+        Map<Task, CompletableFuture<Void>> futures = new HashMap<>();
+        try {
+            for (Task task : tasks) {
+                var dependencies = task.dependencies.stream()
+                        .map(futures::get)
+                        .toArray(CompletableFuture[]::new);
+                var future = CompletableFuture.allOf(dependencies).thenRunAsync(() -> task.run(force), executor);
+                futures.put(task, future);
+            }
+            CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)).join();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static class Task {
+
+        private final String name;
+        private final List<Path> inputs;
+        private final List<Path> outputs;
+        private final Runnable action;
+        private final List<Task> dependencies;
+
+        private Task(String name, List<Path> inputs, List<Path> outputs, Runnable action, List<Task> dependencies) {
+            this.name = name;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.action = action;
+            this.dependencies = dependencies;
+        }
+
+        private void run(boolean force) {
+
+            if (!force && isUpToDate()) {
+                log.info("Skipping " + name + ", all outputs are up-to-date.");
+                return;
+            }
+
+            log.info("Starting " + name);
+            long start = System.currentTimeMillis();
+            try {
+                action.run();
+            } catch (RuntimeException | Error e) {
+                log.error("Task " + name + " failed.", e);
+                deleteOutputs(e);
+                throw e;
+            }
+            log.info("Finished " + name + " after " + (System.currentTimeMillis() - start) / 1000 + "s");
+        }
+
+        private void deleteOutputs(Throwable failure) {
+
+            for (Path output : outputs) {
+                try {
+                    if (Files.deleteIfExists(output)) {
+                        log.info("Deleted output " + output + " of failed task " + name);
+                    }
+                } catch (IOException e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        /**
+         * @return true if all outputs exist and none of them is older than any of the inputs
+         */
+        boolean isUpToDate() {
+
+            if (outputs.isEmpty()) return false;
+
+            try {
+                long oldestOutput = Long.MAX_VALUE;
+                for (Path output : outputs) {
+                    if (!Files.exists(output)) return false;
+                    oldestOutput = Math.min(oldestOutput, Files.getLastModifiedTime(output).toMillis());
+                }
+
+                for (Path input : inputs) {
+                    // a missing input can't be up-to-date, the task is run and reports the missing file
+                    if (!Files.exists(input) || Files.getLastModifiedTime(input).toMillis() > oldestOutput) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -19,9 +19,20 @@ public class PtFaresConfigGroup extends ReflectiveConfigGroup {
 
     private static final String PT_FARE_ZONE_ATTRIBUTE_NAME = "ptFareZoneAttributeName";
     private static final String PT_INTERACTION_PREFIX = "ptInteractionPrefix";
+    private static final String STORE_STOP_SEQUENCES = "storeStopSequences";
+    private static final String FARE_MODE = "fareMode";
+
+    /**
+     * dayTicket: all pt trips of a day are priced as one ticket after the mobsim.
+     * perTrip: every pt trip is priced as a single ticket as soon as the trip is finished.
+     * perTripWithDayCap: like perTrip, but the sum of a day's fares never exceeds the day ticket price.
+     */
+    public enum FareMode {dayTicket, perTrip, perTripWithDayCap}
 
     private static String ptFareZoneAttributeName = "ptFareZone";
     private static String ptInteractionPrefix = "pt interaction";
+    private boolean storeStopSequences = false;
+    private FareMode fareMode = FareMode.dayTicket;
 
     private PtFaresConfigGroup.ZonesGroup zonesGroup;
     private PtFaresConfigGroup.FaresGroup faresGroup;
@@ -93,6 +104,26 @@ public class PtFaresConfigGroup extends ReflectiveConfigGroup {
         ptInteractionPrefix = attributeName;
     }
 
+    @StringGetter(STORE_STOP_SEQUENCES)
+    public boolean isStoreStopSequences() {
+        return storeStopSequences;
+    }
+
+    @StringSetter(STORE_STOP_SEQUENCES)
+    public void setStoreStopSequences(boolean storeStopSequences) {
+        this.storeStopSequences = storeStopSequences;
+    }
+
+    @StringGetter(FARE_MODE)
+    public FareMode getFareMode() {
+        return fareMode;
+    }
+
+    @StringSetter(FARE_MODE)
+    public void setFareMode(FareMode fareMode) {
+        this.fareMode = fareMode;
+    }
+
 
     public static class ZonesGroup extends ReflectiveConfigGroup {
         public static final String TYPE = "zones";
@@ -23,15 +23,22 @@ import org.matsim.stuttgart.ptFares.utils.TransitVehicle;
 import org.matsim.vehicles.Vehicle;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 
 public class PtFaresHandler implements TransitDriverStartsEventHandler, PersonLeavesVehicleEventHandler, VehicleArrivesAtFacilityEventHandler, PersonEntersVehicleEventHandler, AfterMobsimListener, ActivityStartEventHandler {
     private static final Logger log = LogManager.getLogger( PtFaresHandler.class );
+    private static final int PRICING_CHUNK_SIZE = 4096;
+    private static final int OUT_OF_ZONE = -1;
     private double compensationTime = Double.NaN;
-    private final Set<Id<Person>> ptDrivers = new HashSet<>();
-    private final Map<Id<Vehicle>, TransitVehicle> transitVehicles = new HashMap<>();
-    private final Map<Id<Person>, TransitRider> transitRiders = new HashMap<>();
+
+    // state is kept in arrays indexed by Id.index() to avoid hash lookups in the hot path
+    private final BitSet ptDrivers = new BitSet();
+    private BitSet transitVehicleIndices;
+    private TransitVehicle[] transitVehicles = new TransitVehicle[0];
+    private TransitRider[] transitRiders = new TransitRider[0];
+    // slot of each rider in the persons onboard of its vehicle, see TransitVehicle
+    private int[] onboardSlots = new int[0];
 
 
     @Inject
@@ -52,8 +59,8 @@ public class PtFaresHandler implements TransitDriverStartsEventHandler, PersonLe
 
     @Override
     public void reset(int iteration) {
-        this.transitVehicles.clear();
-        this.transitRiders.clear();
+        Arrays.fill(this.transitVehicles, null);
+        Arrays.fill(this.transitRiders, null);
         this.ptDrivers.clear();
     }
 
@@ -61,25 +68,31 @@ public class PtFaresHandler implements TransitDriverStartsEventHandler, PersonLe
     @Override
     public void handleEvent(TransitDriverStartsEvent event) {
 
-        ptDrivers.add(event.getDriverId());
+        ptDrivers.set(event.getDriverId().index());
     }
 
 
     @Override
     public void handleEvent(VehicleArrivesAtFacilityEvent event) {
-        if (scenario.getTransitVehicles().getVehicles().containsKey(event.getVehicleId())) {
+        if (isTransitVehicle(event.getVehicleId())) {
 
             // case: vehicles first arrival of the day
-            transitVehicles.computeIfAbsent(event.getVehicleId(), vehicleId ->
-                    new TransitVehicle(event.getVehicleId()));
+            int vehicleIndex = event.getVehicleId().index();
+            if (vehicleIndex >= transitVehicles.length){
+                transitVehicles = Arrays.copyOf(transitVehicles, Math.max(vehicleIndex + 1, Id.getNumberOfIds(Vehicle.class)));
+            }
+            if (transitVehicles[vehicleIndex] == null){
+                transitVehicles[vehicleIndex] = new TransitVehicle(event.getVehicleId());
+            }
+            TransitVehicle vehicle = transitVehicles[vehicleIndex];
 
             // update vehicle position
-            transitVehicles.get(event.getVehicleId()).
-                    updateLastTransitStopFacility(event.getFacilityId());
+            int zoneCode = fareZoneCalculator.getFareZoneTable().getZoneCode(event.getFacilityId());
+            vehicle.updateLastTransitStopFacility(event.getFacilityId(), zoneCode);
 
-            // update persons trip stop sequence
-            for (var riderId:transitVehicles.get(event.getVehicleId()).getPersonsOnboard()){
-                    transitRiders.get(riderId).updateTrip(event.getFacilityId());
+            // update persons trip stop sequence and visited fare zones
+            for (int i = 0; i < vehicle.getNumberOfPersonsOnboard(); i++){
+                transitRiders[vehicle.getPersonOnboard(i)].updateTrip(event.getFacilityId(), zoneCode);
             }
         }
     }
@@ -89,24 +102,28 @@ public class PtFaresHandler implements TransitDriverStartsEventHandler, PersonLe
     public void handleEvent(PersonEntersVehicleEvent event) {
 
         // transit riders only
-        if (! ptDrivers.contains(event.getPersonId()) &
-                scenario.getTransitVehicles().getVehicles().containsKey(event.getVehicleId())){
+        int personIndex = event.getPersonId().index();
+        if (! ptDrivers.get(personIndex) & isTransitVehicle(event.getVehicleId())){
 
             // case: first trip of the day
-            transitRiders.computeIfAbsent(event.getPersonId(), TransitRider::new);
+            if (personIndex >= transitRiders.length){
+                transitRiders = Arrays.copyOf(transitRiders, Math.max(personIndex + 1, Id.getNumberOfIds(Person.class)));
+                onboardSlots = Arrays.copyOf(onboardSlots, transitRiders.length);
+            }
+            if (transitRiders[personIndex] == null){
+                transitRiders[personIndex] = new TransitRider(event.getPersonId(), ptFaresConfigGroup.isStoreStopSequences());
+            }
+            TransitRider rider = transitRiders[personIndex];
 
             // update persons onboard vehicle
-            transitVehicles.get(event.getVehicleId()).personEntersVehicle(event.getPersonId());
+            TransitVehicle vehicle = transitVehicles[event.getVehicleId().index()];
+            vehicle.personEntersVehicle(personIndex, onboardSlots);
 
-            // update persons trip stop sequence
-            if (transitRiders.get(event.getPersonId()).isOnTransit()){
-                transitRiders.get(event.getPersonId()).updateTrip(
-                        transitVehicles.get(event.getVehicleId()).getLastTransitStopFacility()
-                );
+            // update persons trip stop sequence and visited fare zones
+            if (rider.isOnTransit()){
+                rider.updateTrip(vehicle.getLastTransitStopFacility(), vehicle.getLastZoneCode());
             } else {
-                transitRiders.get(event.getPersonId()).startTrip(
-                        transitVehicles.get(event.getVehicleId()).getLastTransitStopFacility()
-                );
+                rider.startTrip(vehicle.getLastTransitStopFacility(), vehicle.getLastZoneCode());
             }
 
         }
@@ -118,11 +135,11 @@ public class PtFaresHandler implements TransitDriverStartsEventHandler, PersonLe
     public void handleEvent(PersonLeavesVehicleEvent event) {
 
         // transit riders only
-        if (! ptDrivers.contains(event.getPersonId()) &
-                scenario.getTransitVehicles().getVehicles().containsKey(event.getVehicleId())){
+        int personIndex = event.getPersonId().index();
+        if (! ptDrivers.get(personIndex) & isTransitVehicle(event.getVehicleId())){
 
             // update persons onboard vehicle
-            transitVehicles.get(event.getVehicleId()).personLeavesVehicle(event.getPersonId());
+            transitVehicles[event.getVehicleId().index()].personLeavesVehicle(personIndex, onboardSlots);
 
         }
 
@@ -132,14 +149,61 @@ public class PtFaresHandler implements TransitDriverStartsEventHandler, PersonLe
     @Override
     public void handleEvent(ActivityStartEvent event) {
 
-        if (transitRiders.containsKey(event.getPersonId())){
+        TransitRider rider = getTransitRider(event.getPersonId());
+        if (rider != null){
 
-            if (transitRiders.get(event.getPersonId()).isOnTransit() &
+            if (rider.isOnTransit() &
                      (! event.getActType().startsWith(ptFaresConfigGroup.getPtInteractionPrefix()))){
-                transitRiders.get(event.getPersonId()).closeTrip();
+                rider.closeTrip();
+
+                // per trip modes: charge the trip right away instead of after the mobsim
+                if (ptFaresConfigGroup.getFareMode() != PtFaresConfigGroup.FareMode.dayTicket){
+                    chargeTrip(rider, event.getTime());
+                }
+            }
+        }
+
+    }
+
+
+    private TransitRider getTransitRider(Id<Person> personId) {
+        int personIndex = personId.index();
+        return personIndex < transitRiders.length ? transitRiders[personIndex] : null;
+    }
+
+
+    private boolean isTransitVehicle(Id<Vehicle> vehicleId) {
+        if (transitVehicleIndices == null){
+            transitVehicleIndices = new BitSet();
+            for (Id<Vehicle> id : scenario.getTransitVehicles().getVehicles().keySet()){
+                transitVehicleIndices.set(id.index());
+            }
+        }
+        return transitVehicleIndices.get(vehicleId.index());
+    }
+
+
+    private void chargeTrip(TransitRider rider, double time) {
+
+        int zones = calculateZones(rider.getTripZoneCodes());
+        double fare = getFare(zones);
+        String purpose = getPurpose(zones);
+
+        if (ptFaresConfigGroup.getFareMode() == PtFaresConfigGroup.FareMode.perTripWithDayCap){
+            // the day ticket price only grows with the zones visited, so capping each trip keeps the day's sum capped
+            double dayTicketFare = getFare(calculateZones(rider.getZoneCodes()));
+            double remainingFare = Math.max(0., dayTicketFare - rider.getPaidFares());
+            if (remainingFare < fare){
+                fare = remainingFare;
+                purpose += " (day ticket cap)";
+            }
+            if (fare <= 0.){
+                return;
             }
         }
 
+        rider.addPaidFare(fare);
+        events.processEvent(new PersonMoneyEvent(time, rider.getId(), -fare, purpose, "ptAuthority"));
     }
 
 
@@ -147,42 +211,71 @@ public class PtFaresHandler implements TransitDriverStartsEventHandler, PersonLe
     public void notifyAfterMobsim(AfterMobsimEvent event) {
         log.info("Start collecting transit fares...");
 
-        Map<Id<Person>, List<TransitRider.TransitTrip>> riders2TransitTrips = transitRiders.entrySet().parallelStream()
-                .collect(Collectors.toMap(Map.Entry::getKey, map -> map.getValue().getAllTrips()));
-
-        // Trips completely in tariff zone
-        riders2TransitTrips.entrySet().parallelStream()
-                .filter(map -> fareZoneCalculator.isCompletelyInTariffArea(map.getValue()))
-                .forEach(map -> {
-                    Integer zones = fareZoneCalculator.calculateMinNoZones(map.getValue());
-                    Double fare = ptFaresConfigGroup.getFaresGroup().getFare(zones);
-                    fare *= -1;
-                    events.processEvent(new PersonMoneyEvent(getOrCalcCompensationTime(),
-                            map.getKey(),
-                            fare,
-                            "ptFare - " + zones + " zone(s)",
-                            "ptAuthority"
-                    ));
-                });
-
-        // Trips at least partly out of tariff zone
-        riders2TransitTrips.entrySet().parallelStream()
-                .filter(map -> (! fareZoneCalculator.isCompletelyInTariffArea(map.getValue())))
-                .forEach(map -> {
-                    double fare = ptFaresConfigGroup.getFaresGroup().getOutOfZonePrice();
-                    fare *= -1;
-                    events.processEvent(new PersonMoneyEvent(getOrCalcCompensationTime(),
-                            map.getKey(),
-                            fare,
-                            "ptFare - outOfZone",
-                            "ptAuthority"
-                    ));
-                });
+        // deterministic person order, independent of hash map iteration order and number of threads
+        List<TransitRider> riders = new ArrayList<>();
+        for (TransitRider rider : transitRiders){
+            if (rider != null) riders.add(rider);
+        }
+        riders.sort(Comparator.comparing(TransitRider::getId));
+
+        if (ptFaresConfigGroup.getFareMode() != PtFaresConfigGroup.FareMode.dayTicket){
+            // per trip modes: finished trips are already charged, only charge trips which did not end until the end of the mobsim
+            for (TransitRider rider : riders){
+                if (rider.isOnTransit()){
+                    rider.closeTrip();
+                    chargeTrip(rider, getOrCalcCompensationTime());
+                }
+            }
+
+            log.info("Transit fares successfully collected...");
+            return;
+        }
+
+        // Step 1: price riders in parallel, chunk by chunk, into primitive buffers
+        int[] zones = new int[riders.size()];
+        double[] fares = new double[riders.size()];
+        int numberOfChunks = (riders.size() + PRICING_CHUNK_SIZE - 1) / PRICING_CHUNK_SIZE;
+
+        IntStream.range(0, numberOfChunks).parallel().forEach(chunk -> {
+            int end = Math.min(riders.size(), (chunk + 1) * PRICING_CHUNK_SIZE);
+            for (int i = chunk * PRICING_CHUNK_SIZE; i < end; i++){
+                zones[i] = calculateZones(riders.get(i).getZoneCodes());
+                fares[i] = getFare(zones[i]);
+            }
+        });
+
+        // Step 2: emit money events from this thread only
+        for (int i = 0; i < riders.size(); i++){
+            events.processEvent(new PersonMoneyEvent(getOrCalcCompensationTime(),
+                    riders.get(i).getId(),
+                    -fares[i],
+                    getPurpose(zones[i]),
+                    "ptAuthority"
+            ));
+        }
 
         log.info("Transit fares successfully collected...");
     }
 
 
+    /**
+     * @return minimal number of zones for trips completely in tariff zone, {@link #OUT_OF_ZONE} for trips at least partly out of it
+     */
+    private int calculateZones(long zoneCodes) {
+        return fareZoneCalculator.isCompletelyInTariffArea(zoneCodes) ? fareZoneCalculator.calculateMinNoZones(zoneCodes) : OUT_OF_ZONE;
+    }
+
+
+    private double getFare(int zones) {
+        return zones == OUT_OF_ZONE ? ptFaresConfigGroup.getFaresGroup().getOutOfZonePrice() : ptFaresConfigGroup.getFaresGroup().getFare(zones);
+    }
+
+
+    private String getPurpose(int zones) {
+        return zones == OUT_OF_ZONE ? "ptFare - outOfZone" : "ptFare - " + zones + " zone(s)";
+    }
+
+
     private double getOrCalcCompensationTime() {
         if (Double.isNaN(this.compensationTime)) {
             this.compensationTime = (Double.isFinite(qSimConfigGroup.getEndTime().seconds()) && qSimConfigGroup.getEndTime().seconds() > 0)
@@ -3,7 +3,6 @@ import com.google.inject.Inject;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.stuttgart.ptFares.PtFaresConfigGroup;
 
 import java.util.*;
@@ -14,6 +13,7 @@ public class FareZoneCalculator {
 
     Scenario scenario;
     PtFaresConfigGroup ptFaresConfigGroup;
+    FareZoneTable fareZoneTable;
 
     @Inject
     public FareZoneCalculator(Scenario scenario, PtFaresConfigGroup ptFaresConfigGroup){
@@ -21,6 +21,11 @@ public class FareZoneCalculator {
         this.ptFaresConfigGroup = ptFaresConfigGroup;
 
         fareZoneConsistencyChecker();
+        this.fareZoneTable = new FareZoneTable(scenario.getTransitSchedule(), ptFaresConfigGroup);
+    }
+
+    public FareZoneTable getFareZoneTable() {
+        return fareZoneTable;
     }
 
     private void fareZoneConsistencyChecker() {
@@ -73,75 +78,95 @@ public class FareZoneCalculator {
 
     }
 
-    public boolean isCompletelyInTariffArea(List<TransitRider.TransitTrip> trips ){
+    public boolean isCompletelyInTariffArea(long zoneCodes){
 
-        String outOfZoneTag = ptFaresConfigGroup.getZonesGroup().getOutOfZoneTag();
-        return ! determineDistinctZonesFromTrips(trips).contains(outOfZoneTag);
+        return (zoneCodes & FareZoneTable.zoneCodeBit(fareZoneTable.getOutOfZoneCode())) == 0L;
 
     }
 
-    public int calculateMinNoZones(List<TransitRider.TransitTrip> trips){
+    public int calculateMinNoZones(long zoneCodes){
 
-        List<String> zones = determineDistinctZonesFromTrips(trips);
-        // find hybrid zones in list
-        List<Integer> hybridZoneIndices = zones.stream()
-                .filter(ptFaresConfigGroup.getZonesGroup().getHybridZoneStringsWithCorrBaseZones()::containsKey)
-                .map(zones::indexOf)
-                .collect(Collectors.toList());
+        long hybridZoneCodes = zoneCodes & fareZoneTable.getHybridZoneCodes();
+        long baseZoneCodes = zoneCodes & ~hybridZoneCodes & ~FareZoneTable.zoneCodeBit(fareZoneTable.getOutOfZoneCode());
 
-        if (hybridZoneIndices.isEmpty()){
-            List<Integer> intZones = zones.stream()
-                    .map(Integer::parseInt)
-                    .collect(Collectors.toList());
-            return (Collections.max(intZones) - Collections.min(intZones)) + 1;
+        long baseZones = 0L;
+        for (long codes = baseZoneCodes; codes != 0L; codes &= codes - 1){
+            baseZones |= fareZoneTable.getBaseZoneMask(Long.numberOfTrailingZeros(codes));
+        }
 
-        } else {
+        return calculateMinNoZones(baseZones, hybridZoneCodes, fareZoneTable.getBaseZoneMasks());
 
-            // generate Combinations
-            List<List<String>> zoneCombinations = new ArrayList<>();
-            zoneCombinations.add(zones);
-            int combinations = 2;
-            for (var id: hybridZoneIndices){
-
-                List<String> zoneAssignments = new ArrayList<>(ptFaresConfigGroup.getZonesGroup()
-                        .getHybridZoneStringsWithCorrBaseZones().get(zones.get(id)));
-                for (int i = 0; i < combinations/2; i++){
-                    zoneCombinations.add(new ArrayList<>(zones));
-                    zoneCombinations.get(i).set(id, zoneAssignments.get(0));
-                    zoneCombinations.get(i + (combinations/2)).set(id, zoneAssignments.get(1));
-                }
-                combinations *= 2;
-            }
+    }
 
-            // determine zoneRange for each combination
-            List<Integer> zoneRanges = zoneCombinations.stream()
-                    .map(list -> list.stream()
-                        .map(Integer::parseInt)
-                        .collect(Collectors.toList()))
-                    .map(list -> Collections.max(list) - Collections.min(list))
-                    .collect(Collectors.toList());
 
-            return Collections.min(zoneRanges) + 1;
+    /**
+     * Calculates the minimal number of zones of a ticket covering the given base zones plus one assignment of each
+     * hybrid zone, without enumerating all assignment combinations.
+     *
+     * The zones of a ticket form a contiguous range [lower, upper]. The lower bound of the optimal range is either
+     * the lowest base zone or one of the hybrid zone assignments. For each such candidate lower bound every hybrid
+     * zone takes its smallest assignment at or above it, which determines the upper bound. This is O(64 * h) bit
+     * operations for h hybrid zones and does not allocate.
+     *
+     * @param baseZones bitmask of visited base zones
+     * @param hybridZoneCodes bitmask of visited hybrid zone codes
+     * @param baseZoneMasks base zone assignment bitmask per zone code, see {@link FareZoneTable#getBaseZoneMask(int)}
+     * @return minimal number of zones, 0 if no zone was visited at all
+     */
+    public static int calculateMinNoZones(long baseZones, long hybridZoneCodes, long[] baseZoneMasks){
+
+        int lowestBaseZone = Long.numberOfTrailingZeros(baseZones);
+        int highestBaseZone = Long.SIZE - 1 - Long.numberOfLeadingZeros(baseZones);
+
+        if (hybridZoneCodes == 0L){
+            return baseZones == 0L ? 0 : highestBaseZone - lowestBaseZone + 1;
         }
 
-    }
-
+        // candidate lower bounds may not be above the lowest base zone
+        long candidates = baseZones & -baseZones;
+        for (long codes = hybridZoneCodes; codes != 0L; codes &= codes - 1){
+            candidates |= baseZoneMasks[Long.numberOfTrailingZeros(codes)];
+        }
+        if (lowestBaseZone < Long.SIZE - 1){
+            candidates &= (1L << (lowestBaseZone + 1)) - 1;
+        }
 
-    public List<String> determineDistinctZonesFromTrips(List<TransitRider.TransitTrip> trips){
+        int minNoZones = Integer.MAX_VALUE;
+        for (; candidates != 0L; candidates &= candidates - 1){
+            int lower = Long.numberOfTrailingZeros(candidates);
+            int upper = highestBaseZone;
+            boolean feasible = true;
+
+            for (long codes = hybridZoneCodes; codes != 0L; codes &= codes - 1){
+                long assignmentsAtOrAbove = baseZoneMasks[Long.numberOfTrailingZeros(codes)] & (-1L << lower);
+                if (assignmentsAtOrAbove == 0L){
+                    feasible = false;
+                    break;
+                }
+                upper = Math.max(upper, Long.numberOfTrailingZeros(assignmentsAtOrAbove));
+            }
 
-        TransitSchedule schedule = scenario.getTransitSchedule();
-        String attributeName = ptFaresConfigGroup.getPtFareZoneAttributeName();
+            if (feasible){
+                minNoZones = Math.min(minNoZones, upper - lower + 1);
+            }
+        }
 
+        return minNoZones;
 
-        return trips.stream()
-                .flatMap(trip -> trip.getStopSequence().stream())
-                .map(facilityId -> schedule.getFacilities().get(facilityId).getAttributes().getAttribute(attributeName).toString())
-                .distinct()
-                .collect(Collectors.toList());
     }
 
 
+    /**
+     * @param zoneCodes set of zone codes as tracked by {@link TransitRider}, one bit per zone code
+     * @return names of the zones in the set
+     */
+    public List<String> determineDistinctZones(long zoneCodes){
 
-
+        List<String> zones = new ArrayList<>(Long.bitCount(zoneCodes));
+        for (long codes = zoneCodes; codes != 0L; codes &= codes - 1){
+            zones.add(fareZoneTable.getZoneName(Long.numberOfTrailingZeros(codes)));
+        }
+        return zones;
+    }
 
 }
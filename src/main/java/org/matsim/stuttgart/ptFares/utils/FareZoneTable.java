@@ -0,0 +1,150 @@
+package org.matsim.stuttgart.ptFares.utils;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.stuttgart.ptFares.PtFaresConfigGroup;
+
+import java.util.*;
+
+/**
+ * Build-once lookup of the fare zone of each transit stop facility.
+ *
+ * Every zone name (base zones, hybrid zones and the out of zone tag) gets a dense zone code.
+ * Stops are mapped to their zone code via an array indexed by {@link Id#index()}, so resolving
+ * the zone of a stop during the simulation is a single array access.
+ *
+ * Each zone code carries a bitmask over the base zones it may be assigned to: base zones set exactly
+ * one bit, hybrid zones set the bits of their zone assignment. Bit positions are relative to the
+ * smallest base zone number, i.e. bit b stands for base zone (minBaseZone + b).
+ *
+ * Since the codes are dense and small, a set of zone codes fits into a single long, see {@link #zoneCodeBit(int)}.
+ */
+
+public class FareZoneTable {
+
+    public static final int UNDEFINED = -1;
+    public static final int MAX_ZONE_CODES = Long.SIZE;
+
+    private final String[] zoneNames;
+    private final long[] baseZoneMasks;
+    private final boolean[] hybrid;
+    private final long hybridZoneCodes;
+    private final int outOfZoneCode;
+    private final int minBaseZone;
+    private final int[] zoneCodeByStopIndex;
+
+    public FareZoneTable(TransitSchedule schedule, PtFaresConfigGroup ptFaresConfigGroup) {
+
+        PtFaresConfigGroup.ZonesGroup zonesGroup = ptFaresConfigGroup.getZonesGroup();
+
+        // sort zone names so that zone codes are reproducible between runs
+        List<String> names = new ArrayList<>(new TreeSet<>(zonesGroup.getBaseZoneStrings()));
+        names.addAll(new TreeSet<>(zonesGroup.getHybridZoneStringsWithCorrBaseZones().keySet()));
+        names.add(zonesGroup.getOutOfZoneTag());
+
+        if (names.size() > MAX_ZONE_CODES) {
+            throw new IllegalArgumentException(String.format("At most %s fare zones are supported, but %s are defined.",
+                    MAX_ZONE_CODES, names.size()));
+        }
+
+        this.zoneNames = names.toArray(new String[0]);
+        this.outOfZoneCode = zoneNames.length - 1;
+        this.minBaseZone = zonesGroup.getBaseZoneStrings().stream()
+                .mapToInt(Integer::parseInt)
+                .min()
+                .orElse(0);
+
+        Map<String, Integer> codeByName = new HashMap<>();
+        for (int code = 0; code < zoneNames.length; code++) {
+            codeByName.put(zoneNames[code], code);
+        }
+
+        this.baseZoneMasks = new long[zoneNames.length];
+        this.hybrid = new boolean[zoneNames.length];
+        long hybridCodes = 0L;
+        var hybridAssignments = zonesGroup.getHybridZoneStringsWithCorrBaseZones();
+        for (int code = 0; code < outOfZoneCode; code++) {
+            if (hybridAssignments.containsKey(zoneNames[code])) {
+                hybrid[code] = true;
+                hybridCodes |= 1L << code;
+                for (String baseZone : hybridAssignments.get(zoneNames[code])) {
+                    baseZoneMasks[code] |= baseZoneBit(baseZone);
+                }
+            } else {
+                baseZoneMasks[code] = baseZoneBit(zoneNames[code]);
+            }
+        }
+        this.hybridZoneCodes = hybridCodes;
+
+        String attributeName = ptFaresConfigGroup.getPtFareZoneAttributeName();
+        this.zoneCodeByStopIndex = new int[Id.getNumberOfIds(TransitStopFacility.class)];
+        Arrays.fill(zoneCodeByStopIndex, UNDEFINED);
+        for (TransitStopFacility facility : schedule.getFacilities().values()) {
+            Object zone = facility.getAttributes().getAttribute(attributeName);
+            if (zone != null) {
+                zoneCodeByStopIndex[facility.getId().index()] = codeByName.getOrDefault(zone.toString(), UNDEFINED);
+            }
+        }
+    }
+
+    private long baseZoneBit(String baseZone) {
+        int bit = Integer.parseInt(baseZone) - minBaseZone;
+        if (bit < 0 || bit >= Long.SIZE) {
+            throw new IllegalArgumentException(String.format("Base zone '%s' is out of the supported range of %s zones.",
+                    baseZone, Long.SIZE));
+        }
+        return 1L << bit;
+    }
+
+    public int getZoneCode(Id<TransitStopFacility> stopId) {
+        int index = stopId.index();
+        return index < zoneCodeByStopIndex.length ? zoneCodeByStopIndex[index] : UNDEFINED;
+    }
+
+    public static long zoneCodeBit(int zoneCode) {
+        if (zoneCode == UNDEFINED) {
+            throw new IllegalArgumentException("Transit stop has no fare zone defined in the fare zone config.");
+        }
+        return 1L << zoneCode;
+    }
+
+    public long getBaseZoneMask(int zoneCode) {
+        return baseZoneMasks[zoneCode];
+    }
+
+    long[] getBaseZoneMasks() {
+        return baseZoneMasks;
+    }
+
+    public boolean isHybrid(int zoneCode) {
+        return hybrid[zoneCode];
+    }
+
+    public int getOutOfZoneCode() {
+        return outOfZoneCode;
+    }
+
+    public String getZoneName(int zoneCode) {
+        return zoneNames[zoneCode];
+    }
+
+    public int getNumberOfZoneCodes() {
+        return zoneNames.length;
+    }
+
+    /**
+     * @return the base zone number represented by the given bit position of a base zone mask
+     */
+    public int getBaseZone(int bit) {
+        return minBaseZone + bit;
+    }
+
+    /**
+     * @return a mask with one bit per hybrid zone code, handy to split a set of zone codes into base and hybrid zones
+     */
+    public long getHybridZoneCodes() {
+        return hybridZoneCodes;
+    }
+
+}
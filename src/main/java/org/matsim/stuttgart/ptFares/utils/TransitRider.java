@@ -9,11 +9,18 @@ import java.util.List;
 
 public class TransitRider{
     private Id<Person> personId;
+    private final boolean storeStopSequences;
     private final List<TransitTrip> trips = new ArrayList<>();
     private boolean onTransit = false;
 
-    public TransitRider(Id<Person> personId){
+    // running set of fare zone codes visited over the day and on the current trip, see FareZoneTable
+    private long zoneCodes = 0L;
+    private long tripZoneCodes = 0L;
+    private double paidFares = 0.;
+
+    public TransitRider(Id<Person> personId, boolean storeStopSequences){
         setId(personId);
+        this.storeStopSequences = storeStopSequences;
     }
 
     public Id<Person> getId() {
@@ -24,26 +31,58 @@ public class TransitRider{
         this.personId = personId;
     }
 
-    public void startTrip(Id<TransitStopFacility> currentFacility){
+    public void startTrip(Id<TransitStopFacility> currentFacility, int zoneCode){
         onTransit = true;
-        trips.add(new TransitTrip());
-        updateTrip(currentFacility);
+        tripZoneCodes = 0L;
+        if (storeStopSequences){
+            trips.add(new TransitTrip());
+        }
+        updateTrip(currentFacility, zoneCode);
     }
 
     public void closeTrip(){
-        trips.get(trips.size() - 1).markTripAsFinished();
+        if (storeStopSequences){
+            trips.get(trips.size() - 1).markTripAsFinished();
+        }
         onTransit = false;
     }
 
-    public void updateTrip(Id<TransitStopFacility> currentFacility){
-        trips.get(trips.size() - 1).updateStopSequence(currentFacility);
+    public void updateTrip(Id<TransitStopFacility> currentFacility, int zoneCode){
+        tripZoneCodes |= FareZoneTable.zoneCodeBit(zoneCode);
+        zoneCodes |= tripZoneCodes;
+        if (storeStopSequences){
+            trips.get(trips.size() - 1).updateStopSequence(currentFacility);
+        }
     }
 
     public boolean isOnTransit() {
         return onTransit;
     }
 
+    public long getZoneCodes() {
+        return zoneCodes;
+    }
+
+    public long getTripZoneCodes() {
+        return tripZoneCodes;
+    }
+
+    public void addPaidFare(double fare) {
+        paidFares += fare;
+    }
+
+    public double getPaidFares() {
+        return paidFares;
+    }
+
+    /**
+     * @return all trips of the day
+     * @throws IllegalStateException if stop sequences are not stored, see {@link org.matsim.stuttgart.ptFares.PtFaresConfigGroup#isStoreStopSequences()}
+     */
     public List<TransitTrip> getAllTrips(){
+        if (! storeStopSequences){
+            throw new IllegalStateException("Stop sequences of transit rider " + personId + " are not stored. Enable storeStopSequences in the ptFares config group.");
+        }
         return trips;
     }
 
@@ -1,17 +1,18 @@
 package org.matsim.stuttgart.ptFares.utils;
 
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.population.Person;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import org.matsim.vehicles.Vehicle;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 public class TransitVehicle{
     private Id<Vehicle> vehicleId;
-    private final Set<Id<Person>> personsOnboard = new HashSet<>();
+    // persons onboard as Id<Person>.index(), unordered
+    private int[] personsOnboard = new int[16];
+    private int numberOfPersonsOnboard = 0;
     private Id<TransitStopFacility> lastTransitStopFacility;
+    private int lastZoneCode = FareZoneTable.UNDEFINED;
 
     public TransitVehicle(Id<Vehicle> vehicleId){
         this.setId(vehicleId);
@@ -25,24 +26,54 @@ public class TransitVehicle{
         this.vehicleId = vehicleId;
     }
 
-    public void personEntersVehicle(Id<Person> personId){
-        personsOnboard.add(personId);
+    /**
+     * @param onboardSlots slot of each person in the persons onboard of its current vehicle, indexed by
+     *                     Id&lt;Person&gt;.index(). It is shared by all vehicles, as a person is in one vehicle at a time.
+     */
+    public void personEntersVehicle(int personIndex, int[] onboardSlots){
+        if (numberOfPersonsOnboard == personsOnboard.length){
+            personsOnboard = Arrays.copyOf(personsOnboard, personsOnboard.length * 2);
+        }
+        onboardSlots[personIndex] = numberOfPersonsOnboard;
+        personsOnboard[numberOfPersonsOnboard++] = personIndex;
     }
 
-    public void personLeavesVehicle(Id<Person> personId){
-        personsOnboard.remove(personId);
+    /**
+     * Moves the last person onboard into the slot of the leaving person, so leaving doesn't scan the vehicle.
+     */
+    public void personLeavesVehicle(int personIndex, int[] onboardSlots){
+        if (personIndex >= onboardSlots.length){
+            return;
+        }
+        int slot = onboardSlots[personIndex];
+        // the slot may be left over from another vehicle or iteration
+        if (slot >= numberOfPersonsOnboard || personsOnboard[slot] != personIndex){
+            return;
+        }
+        int lastPersonIndex = personsOnboard[--numberOfPersonsOnboard];
+        personsOnboard[slot] = lastPersonIndex;
+        onboardSlots[lastPersonIndex] = slot;
     }
 
-    public Set<Id<Person>> getPersonsOnboard(){
-        return personsOnboard;
+    public int getNumberOfPersonsOnboard(){
+        return numberOfPersonsOnboard;
     }
 
-    public void updateLastTransitStopFacility(Id<TransitStopFacility> lastTransitStopFacility){
+    public int getPersonOnboard(int i){
+        return personsOnboard[i];
+    }
+
+    public void updateLastTransitStopFacility(Id<TransitStopFacility> lastTransitStopFacility, int lastZoneCode){
         this.lastTransitStopFacility = lastTransitStopFacility;
+        this.lastZoneCode = lastZoneCode;
     }
 
     public Id<TransitStopFacility> getLastTransitStopFacility(){
         return lastTransitStopFacility;
     }
 
+    public int getLastZoneCode(){
+        return lastZoneCode;
+    }
+
 }
@@ -4,8 +4,6 @@ import ch.sbb.matsim.config.SwissRailRaptorConfigGroup;
 import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorModule;
 import org.geotools.geometry.jts.JTS;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
@@ -24,22 +22,18 @@ import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
 import org.matsim.core.controler.OutputDirectoryLogging;
-import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.scenario.ScenarioUtils;
-import org.matsim.core.utils.geometry.geotools.MGC;
-import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.stuttgart.Utils;
 import org.matsim.stuttgart.analysis.CountingStation;
-import org.matsim.stuttgart.analysis.LinkCountHandler;
+import org.matsim.stuttgart.analysis.CountingStations;
+import org.matsim.stuttgart.analysis.DilutionAreaPersonFilter;
 import org.matsim.stuttgart.analysis.TripAnalyzerModule;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static org.matsim.core.config.groups.ControlerConfigGroup.RoutingAlgorithmType.FastAStarLandmarks;
 
@@ -167,40 +161,16 @@ public class RunStuttgartSensitivityTest extends MATSimApplication {
         var stuttgartConfig = (StuttgartConfigGroup) controler.getConfig().getModules().get(StuttgartConfigGroup.GROUP_NAME);
         var shapeUrl = ConfigGroup.getInputFileURL(controler.getConfig().getContext(), stuttgartConfig.getDilutionAreaShape());
 
-        var dilutionArea = getDilutionArea(shapeUrl);
         var printerConfig = (TripAnalyzerModule.PrinterConfigGroup) controler.getConfig().getModules().get(TripAnalyzerModule.PrinterConfigGroup.GROUP_NAME);
-        printerConfig.setPersonFilter(personId -> {
-            var person = scenario.getPopulation().getPersons().get(personId);
-            var firstActivity = TripStructureUtils.getActivities(person.getSelectedPlan(), TripStructureUtils.StageActivityHandling.ExcludeStageActivities).get(0);
-            return dilutionArea.stream().anyMatch(geometry -> geometry.covers(MGC.coord2Point(firstActivity.getCoord())));
-        });
+        printerConfig.setPersonFilter(new DilutionAreaPersonFilter(scenario.getPopulation(), shapeUrl));
 
         //create counting station network
-        new LinkCountHandler.CountingNetwork();
-        createCountingNetwork();
-        controler.addOverridingModule(new TripAnalyzerModule());
+        controler.addOverridingModule(new TripAnalyzerModule(createCountingStations()));
 
 
         return controler;
     }
 
-    private static Collection<PreparedGeometry> getDilutionArea(URL shapeFile) {
-
-        var factory = new PreparedGeometryFactory();
-       /* var fromCRS = CRS.decode("EPSG:5677");
-        var toCRS = CRS.decode("EPSG:25832");
-        var transformation = CRS.findMathTransform(fromCRS, toCRS);
-
-        */
-
-        return ShapeFileReader.getAllFeatures(shapeFile).stream()
-                .map(simpleFeature -> (Geometry) simpleFeature.getDefaultGeometry())
-                //.map(geometry -> transform(geometry, transformation))
-                .map(factory::create)
-                .collect(Collectors.toSet());
-
-    }
-
     private static Geometry transform(Geometry geometry, MathTransform transform) {
         try {
             return JTS.transform(geometry, transform);
@@ -209,41 +179,42 @@ public class RunStuttgartSensitivityTest extends MATSimApplication {
         }
     }
 
-    private static void createCountingNetwork() {
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Koenig-Karls-Bruecke Barometer",
+    private static CountingStations createCountingStations() {
+        var countingStations = new CountingStations();
+        countingStations.add(new CountingStation("Koenig-Karls-Bruecke Barometer",
                 new String[]{"2993895710004f", "2993895710004r", "2993895700003f", "2615633160000f"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Boeblinger Strasse",
+        countingStations.add(new CountingStation("Boeblinger Strasse",
                 new String[]{"401040430002f", "401040430002r", "5957276710002f", "5957276710002r"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Taubenheimstrasse",
+        countingStations.add(new CountingStation("Taubenheimstrasse",
                 new String[]{"3585536500004f", "3585536500004r"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Waiblinger Strasse",
+        countingStations.add(new CountingStation("Waiblinger Strasse",
                 new String[]{"3585536510004f", "10968008150004f"}));
 
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Samaraweg",
+        countingStations.add(new CountingStation("Samaraweg",
                 new String[]{"10272926360000f", "10272926360000r"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Tuebinger Strasse",
+        countingStations.add(new CountingStation("Tuebinger Strasse",
                 new String[]{"3536362270003f", "3467623440004f", "3467623440004r"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Lautenschlager Strasse",
+        countingStations.add(new CountingStation("Lautenschlager Strasse",
                 new String[]{"1750316500005f", "1750316500005f_bike-reverse"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Inselstrasse",
+        countingStations.add(new CountingStation("Inselstrasse",
                 new String[]{"3777509370000f", "3777509370000r", "248127500000f", "227009470000f"}));
 
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Kremmlerstrasse",
+        countingStations.add(new CountingStation("Kremmlerstrasse",
                 new String[]{"237199820003f", "237199820003r"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Kirchheimer Strasse",
+        countingStations.add(new CountingStation("Kirchheimer Strasse",
                 new String[]{"7629370820007f", "7629370820007r", "262444090001f", "262444090001r"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Neckartalstrasse",
+        countingStations.add(new CountingStation("Neckartalstrasse",
                 new String[]{"2993863910015f", "2993863910015r", "2977618270000f", "1966731520017f"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Stuttgarter Strasse",
+        countingStations.add(new CountingStation("Stuttgarter Strasse",
                 new String[]{"3684442310011f", "3684442310011r", "4369205380002f", "4369205380002r"}));
 
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Solitudestrasse",
+        countingStations.add(new CountingStation("Solitudestrasse",
                 new String[]{"3832380570013f", "3832380570013r", "290371860010f", "290371860010r", "3023316010000f", "3023316010000r"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Waldburgstrasse",
+        countingStations.add(new CountingStation("Waldburgstrasse",
                 new String[]{"3570056810004f", "3570056810004r", "3570049870031f", "3570049870031r"}));
-        LinkCountHandler.CountingNetwork.addCountingStation(new CountingStation("Am Kraeherwald",
+        countingStations.add(new CountingStation("Am Kraeherwald",
                 new String[]{"2555251750007f", "2555251750007r", "393429710001f", "393429710001r"}));
 
-
+        return countingStations;
     }
 }
@@ -1,8 +1,5 @@
 package org.matsim.stuttgart.run;
 
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.population.Activity;
@@ -17,19 +14,14 @@ import org.matsim.core.config.groups.PlansCalcRouteConfigGroup;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
-import org.matsim.core.router.TripStructureUtils;
-import org.matsim.core.utils.geometry.geotools.MGC;
-import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.stuttgart.Utils;
+import org.matsim.stuttgart.analysis.DilutionAreaPersonFilter;
 import org.matsim.stuttgart.analysis.TripAnalyzerModule;
 import org.opengis.referencing.FactoryException;
 import picocli.CommandLine;
 
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import static org.matsim.core.config.groups.ControlerConfigGroup.RoutingAlgorithmType.FastAStarLandmarks;
 
@@ -139,25 +131,8 @@ public class StuttgartApplication extends MATSimApplication {
         var stuttgartConfig = (StuttgartConfigGroup)controler.getConfig().getModules().get(StuttgartConfigGroup.GROUP_NAME);
         var shapeUrl = ConfigGroup.getInputFileURL(controler.getConfig().getContext(), stuttgartConfig.getDilutionAreaShape());
 
-        var dilutionArea = getDilutionArea(shapeUrl);
-
-
         var printerConfig = (TripAnalyzerModule.PrinterConfigGroup)controler.getConfig().getModules().get(TripAnalyzerModule.PrinterConfigGroup.GROUP_NAME);
-        printerConfig.setPersonFilter(personId -> {
-            var person = controler.getScenario().getPopulation().getPersons().get(personId);
-            var firstActivity = TripStructureUtils.getActivities(person.getSelectedPlan(), TripStructureUtils.StageActivityHandling.ExcludeStageActivities).get(0);
-            return dilutionArea.stream().anyMatch(geometry -> geometry.covers(MGC.coord2Point(firstActivity.getCoord())));
-        });
+        printerConfig.setPersonFilter(new DilutionAreaPersonFilter(controler.getScenario().getPopulation(), shapeUrl));
         controler.addOverridingModule(new TripAnalyzerModule());
     }
-
-    private static Collection<PreparedGeometry> getDilutionArea(URL shapeFile) {
-
-        var factory = new PreparedGeometryFactory();
-
-        return ShapeFileReader.getAllFeatures(shapeFile).stream()
-                .map(simpleFeature -> (Geometry) simpleFeature.getDefaultGeometry())
-                .map(factory::create)
-                .collect(Collectors.toSet());
-    }
 }
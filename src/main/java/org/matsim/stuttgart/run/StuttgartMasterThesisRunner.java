@@ -53,6 +53,7 @@ import org.matsim.extensions.pt.routing.ptRoutingModes.PtIntermodalRoutingModesC
 import org.matsim.extensions.pt.routing.ptRoutingModes.PtIntermodalRoutingModesModule;
 import org.matsim.stuttgart.Utils;
 import org.matsim.stuttgart.prepare.AddAdditionalNetworkAttributes;
+import org.matsim.stuttgart.prepare.EnrichedScenarioCache;
 import org.matsim.stuttgart.prepare.PrepareTransitSchedule;
 import org.matsim.stuttgart.prepare.RemoveFacilitiesFromPlans;
 import org.matsim.stuttgart.ptFares.PtFaresConfigGroup;
@@ -62,6 +63,7 @@ import playground.vsp.simpleParkingCostHandler.ParkingCostConfigGroup;
 import playground.vsp.simpleParkingCostHandler.ParkingCostModule;
 
 import java.net.URISyntaxException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Consumer;
@@ -91,8 +93,9 @@ public class StuttgartMasterThesisRunner {
 
             String fareZoneShapeFileName = (Paths.get(config.getContext().toURI()).getParent()).resolve("input/add/fareZones_bc.shp").toString();
             String parkingZoneShapeFileName = (Paths.get(config.getContext().toURI()).getParent()).resolve("input/add/parkingShapes_bc_v2.shp").toString();
+            Path cacheDirectory = (Paths.get(config.getContext().toURI()).getParent()).resolve("input/add/cache");
             Scenario scenario = prepareScenario(config);
-            finishScenario(scenario, fareZoneShapeFileName, parkingZoneShapeFileName);
+            finishScenario(scenario, fareZoneShapeFileName, parkingZoneShapeFileName, cacheDirectory);
 
             Controler controler = prepareControler(scenario) ;
             controler.run() ;
@@ -216,6 +219,26 @@ public class StuttgartMasterThesisRunner {
     }
 
 
+    /**
+     * Like {@link #finishScenario(Scenario, String, String)}, but takes the added attributes from a cache in the given
+     * directory if network, schedule and shape files did not change since the last run.
+     */
+    public static void finishScenario(Scenario scenario, String fareZoneShapeFilePath, String parkingZoneShapeFilePath, Path cacheDirectory){
+        Config config = scenario.getConfig();
+        String key = EnrichedScenarioCache.computeKey(config.network().getInputFileURL(config.getContext()),
+                config.transit().getTransitScheduleFileURL(config.getContext()),
+                fareZoneShapeFilePath, parkingZoneShapeFilePath);
+
+        EnrichedScenarioCache cache = new EnrichedScenarioCache(cacheDirectory);
+        if (cache.load(scenario, key)){
+            log.info("Scenario successfully prepared from cache...");
+        } else {
+            finishScenario(scenario, fareZoneShapeFilePath, parkingZoneShapeFilePath);
+            cache.write(scenario, key);
+        }
+    }
+
+
     public static void finishScenario(Scenario scenario, String fareZoneShapeFilePath, String parkingZoneShapeFilePath){
         // Add fareZones and VVSBikeAndRideStops
         PrepareTransitSchedule ptPreparer = new PrepareTransitSchedule();
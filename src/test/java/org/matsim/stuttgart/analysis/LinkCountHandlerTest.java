@@ -0,0 +1,94 @@
+package org.matsim.stuttgart.analysis;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class LinkCountHandlerTest {
+
+    @Test
+    public void testCountsPerModeAndHour() {
+
+        var vehicles = VehicleUtils.createVehiclesContainer();
+        var bikeType = vehicles.getFactory().createVehicleType(Id.create("bike", VehicleType.class));
+        bikeType.setNetworkMode(TransportMode.bike);
+        vehicles.addVehicleType(bikeType);
+        vehicles.addVehicle(vehicles.getFactory().createVehicle(Id.createVehicleId("person_bike"), bikeType));
+
+        var handler = new LinkCountHandler(vehicles, Set.of(TransportMode.bike, TransportMode.car), new CountingStations(), 3600);
+        var bike = Id.createVehicleId("person_bike");
+        // not part of the vehicles container, classified by its id
+        var car = Id.createVehicleId("other_car");
+        var pt = Id.createVehicleId("tr_1");
+        var link = Id.createLinkId("link");
+
+        handler.handleEvent(new VehicleEntersTrafficEvent(100, Id.createPersonId("person"), link, bike, TransportMode.bike, 1.0));
+        handler.handleEvent(new LinkEnterEvent(4000, bike, link));
+        handler.handleEvent(new LinkEnterEvent(4100, car, link));
+        handler.handleEvent(new LinkEnterEvent(4200, pt, link));
+
+        assertEquals(2, handler.getCounts(TransportMode.bike)[link.index()]);
+        assertEquals(1, handler.getCounts(TransportMode.car)[link.index()]);
+        assertEquals(2, handler.getModes().size());
+
+        int[] hourlyBikeCounts = handler.getTimeBinnedCounts(TransportMode.bike)[link.index()];
+        assertEquals(30, hourlyBikeCounts.length);
+        assertEquals(1, hourlyBikeCounts[0]);
+        assertEquals(1, hourlyBikeCounts[1]);
+    }
+
+    @Test
+    public void testCountsBikeCarAndAnalyzedModes() {
+
+        var vehicles = VehicleUtils.createVehiclesContainer();
+        var truckType = vehicles.getFactory().createVehicleType(Id.create("truck", VehicleType.class));
+        truckType.setNetworkMode("truck");
+        vehicles.addVehicleType(truckType);
+        vehicles.addVehicle(vehicles.getFactory().createVehicle(Id.createVehicleId("freight_truck"), truckType));
+        var link = Id.createLinkId("link");
+
+        // bike and car are counted without being configured, other modes only if they are analyzed
+        var withoutTrucks = new LinkCountHandler(vehicles, Set.of(), new CountingStations(), 0);
+        var withTrucks = new LinkCountHandler(vehicles, Set.of("truck"), new CountingStations(), 0);
+        for (var handler : List.of(withoutTrucks, withTrucks)) {
+            handler.handleEvent(new LinkEnterEvent(0, Id.createVehicleId("person_bike"), link));
+            handler.handleEvent(new LinkEnterEvent(0, Id.createVehicleId("person_car"), link));
+            handler.handleEvent(new LinkEnterEvent(0, Id.createVehicleId("freight_truck"), link));
+            assertEquals(1, handler.getCounts(TransportMode.bike)[link.index()]);
+            assertEquals(1, handler.getCounts(TransportMode.car)[link.index()]);
+        }
+
+        assertEquals(0, withoutTrucks.getCounts("truck").length);
+        assertEquals(2, withoutTrucks.getModes().size());
+        assertEquals(1, withTrucks.getCounts("truck")[link.index()]);
+        assertEquals(3, withTrucks.getModes().size());
+    }
+
+    @Test
+    public void testCountingStations() {
+
+        var countingStations = new CountingStations()
+                .add(new CountingStation("station", new String[]{"surveyed"}));
+        var handler = new LinkCountHandler(VehicleUtils.createVehiclesContainer(), Set.of(TransportMode.bike, TransportMode.car), countingStations, 0);
+        var bike = Id.createVehicleId("person_bike");
+        var car = Id.createVehicleId("person_car");
+        var surveyed = Id.createLinkId("surveyed");
+
+        handler.handleEvent(new LinkEnterEvent(0, bike, surveyed));
+        handler.handleEvent(new LinkEnterEvent(0, car, surveyed));
+        handler.handleEvent(new LinkEnterEvent(0, bike, Id.createLinkId("other")));
+
+        int slot = countingStations.getSlot(surveyed);
+        assertEquals(1, handler.getStationCounts()[slot]);
+        assertEquals("station", countingStations.getStation(slot).name);
+    }
+}
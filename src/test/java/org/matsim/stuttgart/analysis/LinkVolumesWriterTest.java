@@ -0,0 +1,49 @@
+package org.matsim.stuttgart.analysis;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class LinkVolumesWriterTest {
+
+    @Rule
+    public MatsimTestUtils testUtils = new MatsimTestUtils();
+
+    @Test
+    public void testSkipsLinksWithoutVolumeAfterReset() throws IOException {
+
+        var handler = new LinkCountHandler(VehicleUtils.createVehiclesContainer(), Set.of(TransportMode.bike), new CountingStations(), 3600);
+        var bike = Id.createVehicleId("person_bike");
+
+        // the first iteration uses another link than the second one
+        handler.handleEvent(new LinkEnterEvent(100, bike, Id.createLinkId("usedInFirstIteration")));
+        handler.reset(1);
+        handler.handleEvent(new LinkEnterEvent(3700, bike, Id.createLinkId("usedInSecondIteration")));
+
+        var file = Paths.get(testUtils.getOutputDirectory()).resolve("bikeLinkVolumes.csv.gz");
+        new LinkVolumesWriter(file, handler.getTimeBinSize())
+                .write(handler.getTimeBinnedCounts(TransportMode.bike), handler.getNumberOfTimeBins());
+
+        String[] lines;
+        try (var in = new GZIPInputStream(Files.newInputStream(file))) {
+            lines = new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\\R");
+        }
+
+        assertEquals(2, lines.length);
+        assertEquals("link;0;3600", lines[0].substring(0, "link;0;3600".length()));
+        assertEquals("usedInSecondIteration;0;1;0", lines[1].substring(0, "usedInSecondIteration;0;1;0".length()));
+    }
+}
@@ -0,0 +1,56 @@
+package org.matsim.stuttgart.analysis;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.TransportMode;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ModalShareAggregatorTest {
+
+    @Test
+    public void testDistanceClass() {
+
+        var distanceClasses = new int[]{1000, 5000, 10000};
+
+        assertEquals(0, ModalShareAggregator.getDistanceClass(0, distanceClasses));
+        assertEquals(0, ModalShareAggregator.getDistanceClass(999.9, distanceClasses));
+        assertEquals(1, ModalShareAggregator.getDistanceClass(1000, distanceClasses));
+        assertEquals(2, ModalShareAggregator.getDistanceClass(9999, distanceClasses));
+        assertEquals(3, ModalShareAggregator.getDistanceClass(10000, distanceClasses));
+    }
+
+    @Test
+    public void testModalShares() {
+
+        var trips = new TripStore();
+        addTrip(trips, 500, TransportMode.walk);
+        addTrip(trips, 500, TransportMode.bike);
+        addTrip(trips, 2000, TransportMode.bike);
+        addTrip(trips, 2000, TransportMode.car);
+        // not analyzed
+        addTrip(trips, 2000, TransportMode.pt);
+
+        var aggregator = new ModalShareAggregator(new String[]{TransportMode.walk, TransportMode.bike, TransportMode.car}, new int[]{1000});
+        for (int trip = 0; trip < trips.size(); trip++) {
+            aggregator.add(trips, trip);
+        }
+
+        var modalShare = aggregator.getModalShare();
+        assertEquals(List.of(TransportMode.bike, 2L, 0.5), modalShare.get(1));
+
+        var modalDistanceShare = aggregator.getModalDistanceShare();
+        assertEquals(6, modalDistanceShare.size());
+        assertEquals(List.of(TransportMode.walk, "0 to 1000", 1L, 0.5), modalDistanceShare.get(0));
+        assertEquals(List.of(TransportMode.walk, "> 1000", 0L, 0.), modalDistanceShare.get(1));
+        assertEquals(List.of(TransportMode.car, "> 1000", 1L, 0.5), modalDistanceShare.get(5));
+    }
+
+    private static void addTrip(TripStore trips, double distance, String mode) {
+        int trip = trips.add(0, new Coord(0, 0));
+        trips.setEnd(trip, new Coord(distance, 0));
+        trips.setModeCode(trip, trips.getOrCreateModeCode(mode));
+    }
+}
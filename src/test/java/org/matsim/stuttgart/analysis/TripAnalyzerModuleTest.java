@@ -0,0 +1,73 @@
+package org.matsim.stuttgart.analysis;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TripAnalyzerModuleTest {
+
+    @Test
+    public void testIsAnalysisIteration() {
+
+        var isAnalysisIteration = TripAnalyzerModule.isAnalysisIteration(3, 10);
+        assertTrue(isAnalysisIteration.test(0));
+        assertFalse(isAnalysisIteration.test(1));
+        assertTrue(isAnalysisIteration.test(9));
+        assertTrue(isAnalysisIteration.test(10));
+
+        // only the last iteration
+        var onlyLast = TripAnalyzerModule.isAnalysisIteration(0, 10);
+        assertFalse(onlyLast.test(0));
+        assertTrue(onlyLast.test(10));
+    }
+
+    @Test
+    public void testHandlersRegisteredOnceOverSeveralIterations() {
+
+        int lastIteration = 4;
+        var isAnalysisIteration = TripAnalyzerModule.isAnalysisIteration(3, lastIteration);
+        var tripHandler = new TripEventHandler(NetworkUtils.createNetwork(), isAnalysisIteration);
+        var linkCounter = new LinkCountHandler(VehicleUtils.createVehiclesContainer(), Set.of(TransportMode.bike), new CountingStations(), 0, isAnalysisIteration);
+
+        // registered once for all iterations, like the controler listener of the module does
+        var events = new EventsManagerImpl();
+        events.addHandler(tripHandler);
+        events.addHandler(linkCounter);
+
+        var person = Id.createPersonId("person");
+        var bike = Id.createVehicleId("person_bike");
+        var link = Id.createLinkId("link");
+        // iterations 0, 3 and 4 are analyzed. The results of the last analyzed iteration are kept in between.
+        var expectedTrips = new int[]{1, 1, 1, 4, 5};
+
+        for (int iteration = 0; iteration <= lastIteration; iteration++) {
+
+            events.resetHandlers(iteration);
+            events.initProcessing();
+
+            // one trip and one link entry more than in the previous iteration
+            for (int i = 0; i <= iteration; i++) {
+                events.processEvent(new ActivityEndEvent(i * 3600, person, link, null, "home", new Coord(0, 0)));
+                events.processEvent(new LinkEnterEvent(i * 3600 + 60, bike, link));
+                events.processEvent(new ActivityStartEvent(i * 3600 + 600, person, link, null, "work", new Coord(1000, 0)));
+            }
+            events.finishProcessing();
+
+            assertEquals("trips after iteration " + iteration, expectedTrips[iteration], tripHandler.getTrips().size());
+            assertEquals("link entries after iteration " + iteration, expectedTrips[iteration], linkCounter.getCounts(TransportMode.bike)[link.index()]);
+        }
+    }
+}
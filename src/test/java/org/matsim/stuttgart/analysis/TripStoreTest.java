@@ -0,0 +1,36 @@
+package org.matsim.stuttgart.analysis;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TripStoreTest {
+
+    @Test
+    public void testDistanceMatchesCoordUtils() {
+
+        var trips = new TripStore();
+        var coords = new Coord[][]{
+                // both with elevation, 3D distance
+                {new Coord(0, 0, 100), new Coord(300, 400, 500)},
+                // without elevation, planar distance
+                {new Coord(0, 0), new Coord(300, 400)},
+                // only one with elevation, planar distance
+                {new Coord(0, 0, 100), new Coord(300, 400)},
+        };
+
+        for (Coord[] startAndEnd : coords) {
+            int trip = trips.add(0, startAndEnd[0]);
+            assertFalse(trips.hasEnd(trip));
+            trips.setEnd(trip, startAndEnd[1]);
+            assertTrue(trips.hasEnd(trip));
+            assertEquals(CoordUtils.calcEuclideanDistance(startAndEnd[0], startAndEnd[1]), trips.getDistance(trip), 1e-9);
+        }
+
+        assertEquals(Math.sqrt(300 * 300 + 400 * 400 + 400 * 400), trips.getDistance(0), 1e-9);
+    }
+}
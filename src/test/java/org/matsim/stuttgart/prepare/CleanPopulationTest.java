@@ -0,0 +1,114 @@
+package org.matsim.stuttgart.prepare;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class CleanPopulationTest {
+
+    @Rule
+    public MatsimTestUtils testUtils = new MatsimTestUtils();
+
+    @Test
+    public void testStreamingEqualsInMemory() throws IOException {
+
+        var svn = Paths.get(testUtils.getOutputDirectory());
+        // more persons than fit into the pipeline at once
+        writeInput(svn, createPopulation(25000, -1));
+
+        CleanPopulation.clean(svn);
+        var inMemory = readOutput(svn);
+
+        CleanPopulation.cleanStreaming(svn);
+        var streamed = readOutput(svn);
+
+        assertEquals(25000, streamed.getPersons().size());
+        // the order of the persons is preserved
+        assertEquals(new ArrayList<>(inMemory.getPersons().keySet()), new ArrayList<>(streamed.getPersons().keySet()));
+
+        for (var person : streamed.getPersons().values()) {
+
+            var expected = inMemory.getPersons().get(person.getId()).getSelectedPlan().getPlanElements();
+            var actual = person.getSelectedPlan().getPlanElements();
+            assertEquals(expected.size(), actual.size());
+            assertEquals("person", person.getAttributes().getAttribute("subpopulation"));
+
+            for (int i = 0; i < actual.size(); i++) {
+                if (actual.get(i) instanceof Activity) {
+                    assertEquals(((Activity) expected.get(i)).getType(), ((Activity) actual.get(i)).getType());
+                } else {
+                    assertEquals(TransportMode.walk, ((Leg) actual.get(i)).getMode());
+                }
+            }
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testStreamingRethrowsOriginalFailure() throws IOException {
+
+        var svn = Paths.get(testUtils.getOutputDirectory());
+        // a person without a plan can't be cleaned. The failure has to surface, instead of the rejected submissions of
+        // the persons read after it.
+        writeInput(svn, createPopulation(25000, 100));
+
+        CleanPopulation.cleanStreaming(svn);
+    }
+
+    /**
+     * @param personWithoutPlan index of a person which gets no plan, -1 for none
+     */
+    private static Population createPopulation(int numberOfPersons, int personWithoutPlan) {
+
+        var population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+        var factory = population.getFactory();
+        for (int i = 0; i < numberOfPersons; i++) {
+
+            var person = factory.createPerson(Id.createPersonId("person_" + i));
+            if (i != personWithoutPlan) {
+                var plan = factory.createPlan();
+                var home = factory.createActivityFromCoord("home", new Coord(0, 0));
+                home.setEndTime(8 * 3600);
+                plan.addActivity(home);
+                plan.addLeg(factory.createLeg(TransportMode.car));
+                var work = factory.createActivityFromCoord("work", new Coord(1000, i));
+                work.setStartTime(9 * 3600);
+                work.setEndTime(17 * 3600 + i % 3600);
+                plan.addActivity(work);
+                plan.addLeg(factory.createLeg(TransportMode.pt));
+                var homeAgain = factory.createActivityFromCoord("home", new Coord(0, 0));
+                homeAgain.setStartTime(18 * 3600);
+                plan.addActivity(homeAgain);
+                person.addPlan(plan);
+            }
+            population.addPerson(person);
+        }
+        return population;
+    }
+
+    private static void writeInput(Path svn, Population population) throws IOException {
+        var inputFile = svn.resolve(CleanPopulation.inputPopulation);
+        Files.createDirectories(inputFile.getParent());
+        new PopulationWriter(population).write(inputFile.toString());
+    }
+
+    private static Population readOutput(Path svn) {
+        return PopulationUtils.readPopulation(svn.resolve(CleanPopulation.outputPopulation).toString());
+    }
+}
@@ -8,6 +8,7 @@ import org.matsim.core.utils.geometry.CoordinateTransformation;
 import org.matsim.core.utils.geometry.transformations.TransformationFactory;
 import org.matsim.testcases.MatsimTestUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -45,4 +46,106 @@ public class ElevationReaderTest {
         var elevationIngolstadt = reader.getElevationAt(new Coord(11.42398, 48.76839));
         assertEquals(377.3, elevationIngolstadt, 0.1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testTiled() {
+
+        var stuttgartElevationMap = testUtils.getClassInputDirectory() + "stuttgart_elevation.tif";
+        var ingolstadElevationMap = testUtils.getClassInputDirectory() + "ingolstadt_elevation.tif";
+
+        // keep only one tile per map in memory, so that tiles have to be re-read
+        var reader = new ElevationReader(List.of(stuttgartElevationMap, ingolstadElevationMap), transformation, 1);
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(249.1, reader.getElevationAt(new Coord(9.17968, 48.77863)), 0.1);
+            assertEquals(377.3, reader.getElevationAt(new Coord(11.42398, 48.76839)), 0.1);
+        }
+    }
+
+    @Test
+    public void testTilesEvictedLeastRecentlyUsed() {
+
+        var stuttgartElevationMap = testUtils.getClassInputDirectory() + "stuttgart_elevation.tif";
+        var reader = new ElevationReader(List.of(stuttgartElevationMap), transformation, 2);
+
+        // the test map is stored in strips of 23 rows, these coords are in the first, second and third strip
+        var first = new Coord(9.17, 48.783);
+        var second = new Coord(9.17, 48.775);
+        var third = new Coord(9.17, 48.771);
+
+        reader.getElevationAt(first);
+        reader.getElevationAt(second);
+        reader.getElevationAt(first);
+        // evicts the second strip, which was used less recently than the first one
+        reader.getElevationAt(third);
+        reader.getElevationAt(first);
+
+        assertEquals(3, reader.getTileLoads());
+    }
+
+    @Test
+    public void testTiledConcurrently() {
+
+        var stuttgartElevationMap = testUtils.getClassInputDirectory() + "stuttgart_elevation.tif";
+        var ingolstadElevationMap = testUtils.getClassInputDirectory() + "ingolstadt_elevation.tif";
+        var reader = new ElevationReader(List.of(stuttgartElevationMap, ingolstadElevationMap), transformation, 1);
+
+        var coords = new ArrayList<Coord>();
+        for (int i = 0; i < 1000; i++) {
+            coords.add(i % 2 == 0 ? new Coord(9.17968, 48.77863) : new Coord(11.42398, 48.76839));
+        }
+
+        var elevations = reader.getElevationsAt(coords);
+        for (int i = 0; i < elevations.length; i++) {
+            assertEquals(i % 2 == 0 ? 249.1 : 377.3, elevations[i], 0.1);
+        }
+    }
+
+    @Test
+    public void testCached() {
+
+        var stuttgartElevationMap = testUtils.getClassInputDirectory() + "stuttgart_elevation.tif";
+
+        var first = new Coord(9.17968, 48.77863);
+        // about 700m east of the first coord, which is in another grid cell
+        var second = new Coord(9.18968, 48.77863);
+        var expectedSecond = new ElevationReader(List.of(stuttgartElevationMap), transformation).getElevationAt(second);
+
+        // cache a single elevation, so that looking up the other coord clears the cache
+        var reader = new ElevationReader(List.of(stuttgartElevationMap), transformation, 1, 1);
+
+        for (int i = 0; i < 2; i++) {
+            // miss, then hit
+            assertEquals(249.1, reader.getElevationAt(first), 0.1);
+            assertEquals(249.1, reader.getElevationAt(first), 0.1);
+            // miss which clears the cache, then hit
+            assertEquals(expectedSecond, reader.getElevationAt(second), 0);
+            assertEquals(expectedSecond, reader.getElevationAt(second), 0);
+        }
+
+        assertEquals(4, reader.getCacheHits());
+        assertEquals(4, reader.getCacheMisses());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCacheRequiresTiles() {
+
+        var stuttgartElevationMap = testUtils.getClassInputDirectory() + "stuttgart_elevation.tif";
+        new ElevationReader(List.of(stuttgartElevationMap), transformation, 0, 1);
+    }
+
+    @Test
+    public void testElevationProfile() {
+
+        var stuttgartElevationMap = testUtils.getClassInputDirectory() + "stuttgart_elevation.tif";
+        var reader = new ElevationReader(List.of(stuttgartElevationMap), transformation);
+
+        var profile = reader.getElevationProfile(List.of(new Coord(9.17968, 48.77863), new Coord(9.18968, 48.77863)), 0.001);
+
+        // ten segments between the two vertices
+        assertEquals(11, profile.length);
+        // interpolated heights stay close to the value of the raster cell
+        assertEquals(249.1, profile[0], 10);
+        assertEquals(reader.getElevationAt(new Coord(9.18968, 48.77863)), profile[10], 10);
+    }
+}
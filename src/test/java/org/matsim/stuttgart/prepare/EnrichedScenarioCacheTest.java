@@ -0,0 +1,142 @@
+package org.matsim.stuttgart.prepare;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EnrichedScenarioCacheTest {
+
+    private static final Id<TransitStopFacility> STOP = Id.create("stop", TransitStopFacility.class);
+
+    @Rule
+    public MatsimTestUtils testUtils = new MatsimTestUtils();
+
+    @Test
+    public void testRoundTrip() {
+
+        var cache = new EnrichedScenarioCache(Paths.get(testUtils.getOutputDirectory()));
+        cache.write(createEnrichedScenario(), "key");
+
+        var scenario = createScenario();
+        assertTrue(cache.load(scenario, "key"));
+
+        var stop = scenario.getTransitSchedule().getFacilities().get(STOP).getAttributes();
+        assertEquals("2", stop.getAttribute("ptFareZone"));
+        assertEquals(true, stop.getAttribute("VVSBikeAndRide"));
+
+        var parking = scenario.getNetwork().getLinks().get(Id.createLinkId("parking")).getAttributes();
+        assertEquals(1.5, (Double) parking.getAttribute("oneHourPCost"), 0);
+        assertEquals(3600., (Double) parking.getAttribute("maxPTime"), 0);
+        assertEquals("zone", parking.getAttribute("zoneName"));
+        assertEquals("group", parking.getAttribute("zoneGroup"));
+
+        // links without parking attributes are not cached
+        assertNull(scenario.getNetwork().getLinks().get(Id.createLinkId("pt")).getAttributes().getAttribute("zoneName"));
+    }
+
+    @Test
+    public void testOtherKeyMisses() {
+
+        var cache = new EnrichedScenarioCache(Paths.get(testUtils.getOutputDirectory()));
+        cache.write(createEnrichedScenario(), "key");
+
+        var scenario = createScenario();
+        assertFalse(cache.load(scenario, "otherKey"));
+        assertNull(scenario.getTransitSchedule().getFacilities().get(STOP).getAttributes().getAttribute("ptFareZone"));
+    }
+
+    @Test
+    public void testKeyChangesWithInputs() throws IOException {
+
+        var directory = Paths.get(testUtils.getOutputDirectory());
+        var network = Files.writeString(directory.resolve("network.xml"), "network");
+        var schedule = Files.writeString(directory.resolve("schedule.xml"), "schedule");
+
+        var key = EnrichedScenarioCache.computeKey(network.toUri().toURL(), schedule.toUri().toURL());
+        assertEquals(key, EnrichedScenarioCache.computeKey(network.toUri().toURL(), schedule.toUri().toURL()));
+
+        Files.writeString(schedule, "changed schedule");
+        assertNotEquals(key, EnrichedScenarioCache.computeKey(network.toUri().toURL(), schedule.toUri().toURL()));
+    }
+
+    @Test
+    public void testOtherFormatVersionMisses() throws IOException {
+
+        var cache = new EnrichedScenarioCache(Paths.get(testUtils.getOutputDirectory()));
+        try (var out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(cache.getCacheFile("key"))))) {
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+
+        assertFalse(cache.load(createScenario(), "key"));
+    }
+
+    @Test
+    public void testCorruptFileMisses() throws IOException {
+
+        var cache = new EnrichedScenarioCache(Paths.get(testUtils.getOutputDirectory()));
+        Files.writeString(cache.getCacheFile("notGzipped"), "not a cache file");
+
+        // a valid entry which is cut off in the middle
+        cache.write(createEnrichedScenario(), "key");
+        var bytes = Files.readAllBytes(cache.getCacheFile("key"));
+        Files.write(cache.getCacheFile("truncated"), Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertFalse(cache.load(createScenario(), "notGzipped"));
+        assertFalse(cache.load(createScenario(), "truncated"));
+    }
+
+    private static Scenario createEnrichedScenario() {
+
+        var scenario = createScenario();
+        var stop = scenario.getTransitSchedule().getFacilities().get(STOP).getAttributes();
+        stop.putAttribute("ptFareZone", "2");
+        stop.putAttribute("VVSBikeAndRide", true);
+
+        var parking = scenario.getNetwork().getLinks().get(Id.createLinkId("parking")).getAttributes();
+        parking.putAttribute("oneHourPCost", 1.5);
+        parking.putAttribute("extraHourPCost", 1.);
+        parking.putAttribute("maxDailyPCost", 10.);
+        parking.putAttribute("maxPTime", 3600.);
+        parking.putAttribute("pFine", 30.);
+        parking.putAttribute("resPCosts", 0.);
+        parking.putAttribute("zoneName", "zone");
+        parking.putAttribute("zoneGroup", "group");
+        return scenario;
+    }
+
+    private static Scenario createScenario() {
+
+        var scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+        var network = scenario.getNetwork();
+        var from = NetworkUtils.createAndAddNode(network, Id.createNodeId("from"), new Coord(0, 0));
+        var to = NetworkUtils.createAndAddNode(network, Id.createNodeId("to"), new Coord(100, 0));
+        network.addLink(network.getFactory().createLink(Id.createLinkId("parking"), from, to));
+        network.addLink(network.getFactory().createLink(Id.createLinkId("pt"), to, from));
+
+        var schedule = scenario.getTransitSchedule();
+        schedule.addStopFacility(schedule.getFactory().createTransitStopFacility(STOP, new Coord(0, 0), false));
+        return scenario;
+    }
+}
@@ -0,0 +1,106 @@
+package org.matsim.stuttgart.prepare;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.core.utils.gis.ShapeFileReader;
+import org.matsim.stuttgart.PreparedFeatureIndex;
+import org.opengis.feature.simple.SimpleFeature;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the fare zone assignment of {@link PrepareTransitSchedule} via {@link PreparedFeatureIndex} with testing
+ * every stop against every fare zone polygon.
+ *
+ * Stops are random points within the envelope of all fare zones. By default the fare zone shapes in test/input/prep
+ * are used, for the real scenario pass e.g. -p shapeFile=/path/to/input/add/fareZones_bc.shp
+ *
+ * Run with the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FareZoneLookupBenchmark {
+
+    @Param({"./test/input/prep/fareZones_sp.shp"})
+    public String shapeFile;
+
+    @Param({"10000"})
+    public int numberOfStops;
+
+    private Collection<SimpleFeature> features;
+    private PreparedFeatureIndex<String> index;
+    private Coord[] stops;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FareZoneLookupBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    @Setup
+    public void setup() {
+
+        features = ShapeFileReader.getAllFeatures(shapeFile);
+        index = PrepareTransitSchedule.createFareZoneIndex(features);
+
+        Envelope envelope = new Envelope();
+        for (SimpleFeature feature : features) {
+            envelope.expandToInclude(((Geometry) feature.getDefaultGeometry()).getEnvelopeInternal());
+        }
+
+        Random random = new Random(4711);
+        stops = new Coord[numberOfStops];
+        for (int i = 0; i < numberOfStops; i++) {
+            stops[i] = new Coord(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                    envelope.getMinY() + random.nextDouble() * envelope.getHeight());
+        }
+    }
+
+    @Benchmark
+    public void index(Blackhole blackhole) {
+        for (Coord stop : stops) {
+            blackhole.consume(index.getLast(stop));
+        }
+    }
+
+    @Benchmark
+    public void indexParallel(Blackhole blackhole) {
+        blackhole.consume(Arrays.stream(stops).parallel()
+                .map(index::getLast)
+                .filter(Objects::nonNull)
+                .count());
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        for (Coord stop : stops) {
+
+            // former implementation of PrepareTransitSchedule.findFareZone
+            String fareZone = "out";
+            Point point = MGC.coord2Point(stop);
+            for (SimpleFeature feature : features) {
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry.covers(point)) {
+                    fareZone = feature.getAttribute("FareZone").toString();
+                }
+            }
+            blackhole.consume(fareZone);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.matsim.stuttgart.prepare;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.bicycle.BicycleUtils;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.BitSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrepareBikeFriendlyScenarioTest {
+
+    @Test
+    public void testAddCycleways() {
+
+        Network network = NetworkUtils.createNetwork();
+        var inside1 = NetworkUtils.createAndAddNode(network, Id.createNodeId("inside1"), new Coord(0, 0));
+        var inside2 = NetworkUtils.createAndAddNode(network, Id.createNodeId("inside2"), new Coord(100, 0));
+        var outside = NetworkUtils.createAndAddNode(network, Id.createNodeId("outside"), new Coord(10000, 0));
+
+        var upgraded = addLink(network, "upgraded", inside1, inside2, "primary", null);
+        addLink(network, "withTrack", inside2, inside1, "secondary", "track");
+        addLink(network, "residential", inside1, inside2, "residential", null);
+        addLink(network, "leavingArea", inside2, outside, "tertiary", null);
+
+        var nodesInArea = new BitSet();
+        nodesInArea.set(inside1.getId().index());
+        nodesInArea.set(inside2.getId().index());
+
+        PrepareBikeFriendlyScenario.addCycleways(network, nodesInArea);
+
+        assertEquals(5, network.getLinks().size());
+        var cycleway = network.getLinks().get(Id.createLinkId("upgraded_cycleway"));
+        assertEquals(Set.of(TransportMode.bike), cycleway.getAllowedModes());
+        assertEquals("track", cycleway.getAttributes().getAttribute(BicycleUtils.CYCLEWAY));
+        // the capacity of the link is below twice the standard capacity, so it is split in half
+        assertEquals(1000, cycleway.getCapacity(), 0);
+        assertEquals(1000, upgraded.getCapacity(), 0);
+        assertEquals(1, upgraded.getNumberOfLanes(), 0);
+
+        assertTrue(network.getLinks().containsKey(Id.createLinkId("withTrack")));
+        assertFalse(network.getLinks().containsKey(Id.createLinkId("withTrack_cycleway")));
+        assertFalse(network.getLinks().containsKey(Id.createLinkId("residential_cycleway")));
+        assertFalse(network.getLinks().containsKey(Id.createLinkId("leavingArea_cycleway")));
+    }
+
+    private static Link addLink(Network network, String id, Node from, Node to, String wayType, String cycleway) {
+
+        var link = network.getFactory().createLink(Id.createLinkId(id), from, to);
+        link.setCapacity(2000);
+        link.setNumberOfLanes(2);
+        link.setAllowedModes(Set.of(TransportMode.car, TransportMode.bike));
+        link.getAttributes().putAttribute(BicycleUtils.WAY_TYPE, wayType);
+        if (cycleway != null) {
+            link.getAttributes().putAttribute(BicycleUtils.CYCLEWAY, cycleway);
+        }
+        network.addLink(link);
+        return link;
+    }
+}
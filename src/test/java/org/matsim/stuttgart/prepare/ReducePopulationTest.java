@@ -0,0 +1,101 @@
+package org.matsim.stuttgart.prepare;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReducePopulationTest {
+
+    @Rule
+    public MatsimTestUtils testUtils = new MatsimTestUtils();
+
+    @Test
+    public void testSamplingValue() {
+
+        int numberOfPersons = 100000;
+        int inTenPercentSample = 0;
+        for (int i = 0; i < numberOfPersons; i++) {
+
+            var value = ReducePopulation.getSamplingValue(Id.createPersonId("person_" + i), 4711);
+            assertTrue(value >= 0 && value < 1);
+            assertEquals(value, ReducePopulation.getSamplingValue(Id.createPersonId("person_" + i), 4711), 0);
+            if (value < 0.1) inTenPercentSample++;
+        }
+
+        assertEquals(0.1, (double) inTenPercentSample / numberOfPersons, 0.005);
+    }
+
+    @Test
+    public void testCreateDownsamples() throws IOException {
+
+        var svn = Paths.get(testUtils.getOutputDirectory());
+        var inputFile = svn.resolve(ReducePopulation.inputPopulation);
+        Files.createDirectories(inputFile.getParent());
+
+        int numberOfPersons = 5000;
+        var population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+        var factory = population.getFactory();
+        for (int i = 0; i < numberOfPersons; i++) {
+            var person = factory.createPerson(Id.createPersonId("person_" + i));
+            var plan = factory.createPlan();
+            plan.addActivity(factory.createActivityFromCoord("home", new Coord(i, i)));
+            person.addPlan(plan);
+            population.addPerson(person);
+        }
+        new PopulationWriter(population).write(inputFile.toString());
+
+        ReducePopulation.createDownsamples(svn);
+
+        var sample25 = readPersonIds(ReducePopulation.getOutputPopulation(svn, 25));
+        var sample10 = readPersonIds(ReducePopulation.getOutputPopulation(svn, 10));
+        var sample1 = readPersonIds(ReducePopulation.getOutputPopulation(svn, 1));
+        var sample0 = readPersonIds(ReducePopulation.getOutputPopulation(svn, 0));
+
+        // the input is written completely as 25pct sample
+        assertEquals(population.getPersons().keySet(), sample25);
+
+        // the samples are nested
+        assertTrue(sample25.containsAll(sample10));
+        assertTrue(sample10.containsAll(sample1));
+        assertTrue(sample1.containsAll(sample0));
+        assertEquals(0.4 * numberOfPersons, sample10.size(), 0.05 * numberOfPersons);
+        assertEquals(0.04 * numberOfPersons, sample1.size(), 0.01 * numberOfPersons);
+
+        // each sample contains exactly the persons with a sampling value below its fraction
+        assertEquals(population.getPersons().keySet().stream()
+                .filter(id -> ReducePopulation.getSamplingValue(id, 4711) < 0.4)
+                .collect(Collectors.toSet()), sample10);
+
+        for (int percentage : new int[]{25, 10, 1, 0}) {
+            assertTrue(readFile(ReducePopulation.getOutputPopulation(svn, percentage)).contains("epsg:25832"));
+        }
+    }
+
+    private static Set<Id<Person>> readPersonIds(Path file) {
+        return PopulationUtils.readPopulation(file.toString()).getPersons().keySet();
+    }
+
+    private static String readFile(Path gzipFile) throws IOException {
+        try (var in = new GZIPInputStream(Files.newInputStream(gzipFile))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
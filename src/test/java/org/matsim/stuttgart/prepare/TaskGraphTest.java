@@ -0,0 +1,122 @@
+package org.matsim.stuttgart.prepare;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class TaskGraphTest {
+
+    @Rule
+    public MatsimTestUtils testUtils = new MatsimTestUtils();
+
+    @Test
+    public void testRerunsOnlyAffectedTasks() throws IOException {
+
+        var directory = Paths.get(testUtils.getOutputDirectory());
+        var firstInput = directory.resolve("first-input.txt");
+        var secondInput = directory.resolve("second-input.txt");
+        var firstOutput = directory.resolve("first-output.txt");
+        var downstreamOutput = directory.resolve("downstream-output.txt");
+        var secondOutput = directory.resolve("second-output.txt");
+        writeWithAge(firstInput, 100);
+        writeWithAge(secondInput, 100);
+
+        var firstRuns = new AtomicInteger();
+        var downstreamRuns = new AtomicInteger();
+        var secondRuns = new AtomicInteger();
+
+        var graph = new TaskGraph();
+        var first = graph.add("first", List.of(firstInput), List.of(firstOutput), () -> touch(firstOutput, firstRuns));
+        graph.add("downstream", List.of(firstOutput), List.of(downstreamOutput), () -> touch(downstreamOutput, downstreamRuns), first);
+        graph.add("second", List.of(secondInput), List.of(secondOutput), () -> touch(secondOutput, secondRuns));
+
+        graph.run(2, false);
+        assertEquals(1, firstRuns.get());
+        assertEquals(1, downstreamRuns.get());
+        assertEquals(1, secondRuns.get());
+
+        // nothing has changed
+        graph.run(2, false);
+        assertEquals(1, firstRuns.get());
+        assertEquals(1, downstreamRuns.get());
+        assertEquals(1, secondRuns.get());
+
+        // change the first input, which should rerun the first task and the one downstream of it
+        writeWithAge(firstInput, -100);
+        graph.run(2, false);
+        assertEquals(2, firstRuns.get());
+        assertEquals(2, downstreamRuns.get());
+        assertEquals(1, secondRuns.get());
+
+        graph.run(2, true);
+        assertEquals(3, firstRuns.get());
+        assertEquals(3, downstreamRuns.get());
+        assertEquals(2, secondRuns.get());
+    }
+
+    @Test
+    public void testRerunsFailedTask() throws IOException {
+
+        var directory = Paths.get(testUtils.getOutputDirectory());
+        var input = directory.resolve("input.txt");
+        var output = directory.resolve("output.txt");
+        var downstreamOutput = directory.resolve("downstream-output.txt");
+        writeWithAge(input, 100);
+
+        var runs = new AtomicInteger();
+        var downstreamRuns = new AtomicInteger();
+        var failing = new AtomicBoolean(true);
+
+        var graph = new TaskGraph();
+        var task = graph.add("failing", List.of(input), List.of(output), () -> {
+            // the output is written partially before the failure
+            touch(output, runs);
+            if (failing.get()) throw new IllegalStateException("failed halfway");
+        });
+        graph.add("downstream", List.of(output), List.of(downstreamOutput), () -> touch(downstreamOutput, downstreamRuns), task);
+
+        try {
+            graph.run(2, false);
+            fail("the failure of the task has to be rethrown");
+        } catch (CompletionException e) {
+            // expected
+        }
+        assertEquals(1, runs.get());
+        assertEquals(0, downstreamRuns.get());
+        assertFalse(Files.exists(output));
+
+        // the failed task is not skipped, although its input has not changed
+        failing.set(false);
+        graph.run(2, false);
+        assertEquals(2, runs.get());
+        assertEquals(1, downstreamRuns.get());
+    }
+
+    private static void writeWithAge(Path file, long ageInSeconds) throws IOException {
+        Files.writeString(file, "input");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - ageInSeconds * 1000));
+    }
+
+    private static void touch(Path file, AtomicInteger runs) {
+        try {
+            Files.writeString(file, "output " + runs.incrementAndGet());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package org.matsim.stuttgart.ptFares;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
+import org.matsim.api.core.v01.events.PersonMoneyEvent;
+import org.matsim.api.core.v01.events.TransitDriverStartsEvent;
+import org.matsim.api.core.v01.events.handler.PersonMoneyEventHandler;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.api.experimental.events.VehicleArrivesAtFacilityEvent;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.QSimConfigGroup;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds the {@link PtFaresHandler} with hand written events of a single bus, instead of running a whole simulation.
+ */
+public class PtFaresHandlerEventsTest {
+
+    private static final double END_TIME = 30 * 3600.;
+    private static final Id<Vehicle> BUS = Id.createVehicleId("bus");
+
+    private final List<PersonMoneyEvent> moneyEvents = new ArrayList<>();
+    private EventsManager events;
+    private PtFaresHandler handler;
+
+    @Test
+    public void testDayTicketAcrossSeveralZones() {
+
+        setUp(PtFaresConfigGroup.FareMode.dayTicket);
+        var acrossZones = Id.createPersonId("acrossZones");
+        var hybridOnly = Id.createPersonId("hybridOnly");
+
+        arrive(8 * 3600, "1");
+        enter(8 * 3600, acrossZones);
+        arrive(8 * 3600 + 300, "1,2");
+        enter(8 * 3600 + 300, hybridOnly);
+        arrive(8 * 3600 + 600, "3");
+        leave(8 * 3600 + 600, acrossZones);
+        startActivity(8 * 3600 + 660, acrossZones, "work");
+        leave(8 * 3600 + 600, hybridOnly);
+        startActivity(8 * 3600 + 660, hybridOnly, "work");
+
+        // day tickets are only charged after the mobsim
+        assertTrue(moneyEvents.isEmpty());
+        finishMobsim();
+
+        assertEquals(2, moneyEvents.size());
+        // zones 1 and 3 are visited, which requires a ticket for zones 1 to 3
+        assertMoneyEvent(moneyEvents.get(0), acrossZones, END_TIME, -300, "ptFare - 3 zone(s)");
+        // the stop in zone 3 may be paid with a hybrid zone assigned to zone 2
+        assertMoneyEvent(moneyEvents.get(1), hybridOnly, END_TIME, -200, "ptFare - 2 zone(s)");
+    }
+
+    @Test
+    public void testPerTripChargedOnActivityStart() {
+
+        setUp(PtFaresConfigGroup.FareMode.perTrip);
+        var person = Id.createPersonId("person");
+
+        arrive(8 * 3600, "1");
+        enter(8 * 3600, person);
+        arrive(8 * 3600 + 300, "2");
+        leave(8 * 3600 + 300, person);
+        // transfers do not end the trip
+        startActivity(8 * 3600 + 300, person, "pt interaction");
+        enter(8 * 3600 + 400, person);
+        arrive(8 * 3600 + 600, "3");
+        leave(8 * 3600 + 600, person);
+        startActivity(8 * 3600 + 660, person, "work");
+
+        assertEquals(1, moneyEvents.size());
+        assertMoneyEvent(moneyEvents.get(0), person, 8 * 3600 + 660, -300, "ptFare - 3 zone(s)");
+
+        arrive(17 * 3600, "3");
+        enter(17 * 3600, person);
+        arrive(17 * 3600 + 300, "2");
+        leave(17 * 3600 + 300, person);
+        startActivity(17 * 3600 + 360, person, "home");
+
+        assertEquals(2, moneyEvents.size());
+        assertMoneyEvent(moneyEvents.get(1), person, 17 * 3600 + 360, -200, "ptFare - 2 zone(s)");
+
+        // all trips are closed, so nothing is left to be charged
+        finishMobsim();
+        assertEquals(2, moneyEvents.size());
+    }
+
+    @Test
+    public void testPerTripWithDayCap() {
+
+        setUp(PtFaresConfigGroup.FareMode.perTripWithDayCap);
+        var person = Id.createPersonId("person");
+
+        arrive(8 * 3600, "1");
+        enter(8 * 3600, person);
+        arrive(8 * 3600 + 300, "2");
+        leave(8 * 3600 + 300, person);
+        startActivity(8 * 3600 + 360, person, "work");
+
+        // the day ticket for zones 1 to 3 costs 300, of which 200 are already paid
+        enter(12 * 3600, person);
+        arrive(12 * 3600 + 300, "3");
+        leave(12 * 3600 + 300, person);
+        startActivity(12 * 3600 + 360, person, "leisure");
+
+        // the day ticket is paid completely, so further trips are free
+        enter(17 * 3600, person);
+        arrive(17 * 3600 + 300, "3");
+        leave(17 * 3600 + 300, person);
+        startActivity(17 * 3600 + 360, person, "home");
+
+        finishMobsim();
+
+        assertEquals(2, moneyEvents.size());
+        assertMoneyEvent(moneyEvents.get(0), person, 8 * 3600 + 360, -200, "ptFare - 2 zone(s)");
+        assertMoneyEvent(moneyEvents.get(1), person, 12 * 3600 + 360, -100, "ptFare - 2 zone(s) (day ticket cap)");
+    }
+
+    @Test
+    public void testOpenTripChargedAtEndOfMobsim() {
+
+        setUp(PtFaresConfigGroup.FareMode.perTrip);
+        var person = Id.createPersonId("person");
+
+        arrive(8 * 3600, "1");
+        enter(8 * 3600, person);
+        arrive(8 * 3600 + 300, "out");
+
+        // the person is still on the bus when the mobsim ends
+        assertTrue(moneyEvents.isEmpty());
+        finishMobsim();
+
+        assertEquals(1, moneyEvents.size());
+        assertMoneyEvent(moneyEvents.get(0), person, END_TIME, -500, "ptFare - outOfZone");
+    }
+
+    private void setUp(PtFaresConfigGroup.FareMode fareMode) {
+
+        var ptFaresConfigGroup = createPtFaresConfigGroup(fareMode);
+        Config config = ConfigUtils.createConfig(ptFaresConfigGroup);
+        config.transit().setUseTransit(true);
+        config.qsim().setEndTime(END_TIME);
+        Scenario scenario = ScenarioUtils.createScenario(config);
+
+        var schedule = scenario.getTransitSchedule();
+        for (String zone : List.of("1", "2", "3", "1,2", "out")) {
+            var stop = schedule.getFactory().createTransitStopFacility(Id.create(zone, TransitStopFacility.class), new Coord(0, 0), false);
+            stop.getAttributes().putAttribute(ptFaresConfigGroup.getPtFareZoneAttributeName(), zone);
+            schedule.addStopFacility(stop);
+        }
+
+        var vehicleType = VehicleUtils.createVehicleType(Id.create("bus", VehicleType.class));
+        scenario.getTransitVehicles().addVehicleType(vehicleType);
+        scenario.getTransitVehicles().addVehicle(VehicleUtils.createVehicle(BUS, vehicleType));
+
+        // handles the events synchronously, so that money events can be asserted right after the event causing them
+        events = new EventsManagerImpl();
+        handler = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(EventsManager.class).toInstance(events);
+                bind(Scenario.class).toInstance(scenario);
+                bind(QSimConfigGroup.class).toInstance(config.qsim());
+                bind(PtFaresConfigGroup.class).toInstance(ptFaresConfigGroup);
+            }
+        }).getInstance(PtFaresHandler.class);
+
+        events.addHandler(handler);
+        events.addHandler((PersonMoneyEventHandler) moneyEvents::add);
+        events.initProcessing();
+
+        var driver = Id.createPersonId("driver");
+        process(new TransitDriverStartsEvent(0, driver, BUS, Id.create("line", TransitLine.class), Id.create("route", TransitRoute.class),
+                Id.create("departure", Departure.class)));
+        enter(0, driver);
+    }
+
+    private static PtFaresConfigGroup createPtFaresConfigGroup(PtFaresConfigGroup.FareMode fareMode) {
+
+        PtFaresConfigGroup configFares = new PtFaresConfigGroup();
+        configFares.setFareMode(fareMode);
+
+        PtFaresConfigGroup.FaresGroup faresGroup = new PtFaresConfigGroup.FaresGroup();
+        faresGroup.setOutOfZonePrice(500.);
+        faresGroup.addFare(new PtFaresConfigGroup.FaresGroup.Fare(1, 100.));
+        faresGroup.addFare(new PtFaresConfigGroup.FaresGroup.Fare(2, 200.));
+        faresGroup.addFare(new PtFaresConfigGroup.FaresGroup.Fare(3, 300.));
+        configFares.setFaresGroup(faresGroup);
+
+        PtFaresConfigGroup.ZonesGroup zonesGroup = new PtFaresConfigGroup.ZonesGroup();
+        zonesGroup.setOutOfZoneTag("out");
+        zonesGroup.addZone(new PtFaresConfigGroup.ZonesGroup.Zone("1", false));
+        zonesGroup.addZone(new PtFaresConfigGroup.ZonesGroup.Zone("2", false));
+        zonesGroup.addZone(new PtFaresConfigGroup.ZonesGroup.Zone("3", false));
+        zonesGroup.addZone(new PtFaresConfigGroup.ZonesGroup.Zone("1,2", true, Set.of("1", "2")));
+        configFares.setZonesGroup(zonesGroup);
+
+        return configFares;
+    }
+
+    private void arrive(double time, String stop) {
+        process(new VehicleArrivesAtFacilityEvent(time, BUS, Id.create(stop, TransitStopFacility.class), 0.));
+    }
+
+    private void enter(double time, Id<Person> person) {
+        process(new PersonEntersVehicleEvent(time, person, BUS));
+    }
+
+    private void leave(double time, Id<Person> person) {
+        process(new PersonLeavesVehicleEvent(time, person, BUS));
+    }
+
+    private void startActivity(double time, Id<Person> person, String type) {
+        process(new ActivityStartEvent(time, person, null, null, type, null));
+    }
+
+    private void process(Event event) {
+        events.processEvent(event);
+    }
+
+    private void finishMobsim() {
+        // the handler doesn't look at the event
+        handler.notifyAfterMobsim(null);
+        events.finishProcessing();
+    }
+
+    private static void assertMoneyEvent(PersonMoneyEvent event, Id<Person> person, double time, double amount, String purpose) {
+        assertEquals(person, event.getPersonId());
+        assertEquals(time, event.getTime(), 0);
+        assertEquals(amount, event.getAmount(), 0);
+        assertEquals(purpose, event.getPurpose());
+        assertEquals("ptAuthority", event.getTransactionPartner());
+    }
+}
@@ -0,0 +1,133 @@
+package org.matsim.stuttgart.ptFares.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the bitmask based hybrid zone minimisation of {@link FareZoneCalculator#calculateMinNoZones(long, long, long[])}
+ * with the former enumeration of all 2^h hybrid zone assignments on string zone lists.
+ *
+ * Synthetic setup: base zones 1..10 and hybrid zones "k,k+1" for k = 1..9. Each trip visits one to three base zones
+ * and the given number of distinct hybrid zones.
+ *
+ * Run with the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FareZoneCalculatorBenchmark {
+
+    private static final int NUMBER_OF_BASE_ZONES = 10;
+    private static final int NUMBER_OF_TRIPS = 1024;
+
+    @Param({"0", "1", "2", "4", "6", "8"})
+    public int numberOfHybridZones;
+
+    private final long[] baseZoneMasks = new long[NUMBER_OF_BASE_ZONES - 1];
+    private final Map<String, List<String>> hybridZoneAssignments = new HashMap<>();
+
+    private long[] baseZonesOfTrips;
+    private long[] hybridZoneCodesOfTrips;
+    private List<List<String>> zonesOfTrips;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FareZoneCalculatorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    @Setup
+    public void setup() {
+
+        // hybrid zone code k-1 stands for "k,k+1"
+        for (int k = 1; k < NUMBER_OF_BASE_ZONES; k++) {
+            baseZoneMasks[k - 1] = 0b11L << (k - 1);
+            hybridZoneAssignments.put(k + "," + (k + 1), List.of(String.valueOf(k), String.valueOf(k + 1)));
+        }
+
+        Random random = new Random(4711);
+        baseZonesOfTrips = new long[NUMBER_OF_TRIPS];
+        hybridZoneCodesOfTrips = new long[NUMBER_OF_TRIPS];
+        zonesOfTrips = new ArrayList<>(NUMBER_OF_TRIPS);
+
+        for (int i = 0; i < NUMBER_OF_TRIPS; i++) {
+            List<String> zones = new ArrayList<>();
+
+            int numberOfBaseZones = 1 + random.nextInt(3);
+            for (int j = 0; j < numberOfBaseZones; j++) {
+                int zone = 1 + random.nextInt(NUMBER_OF_BASE_ZONES);
+                if ((baseZonesOfTrips[i] & 1L << (zone - 1)) == 0L) {
+                    baseZonesOfTrips[i] |= 1L << (zone - 1);
+                    zones.add(String.valueOf(zone));
+                }
+            }
+
+            while (Long.bitCount(hybridZoneCodesOfTrips[i]) < numberOfHybridZones) {
+                int code = random.nextInt(NUMBER_OF_BASE_ZONES - 1);
+                if ((hybridZoneCodesOfTrips[i] & 1L << code) == 0L) {
+                    hybridZoneCodesOfTrips[i] |= 1L << code;
+                    zones.add((code + 1) + "," + (code + 2));
+                }
+            }
+
+            zonesOfTrips.add(zones);
+        }
+    }
+
+    @Benchmark
+    public void bitmask(Blackhole blackhole) {
+        for (int i = 0; i < NUMBER_OF_TRIPS; i++) {
+            blackhole.consume(FareZoneCalculator.calculateMinNoZones(baseZonesOfTrips[i], hybridZoneCodesOfTrips[i], baseZoneMasks));
+        }
+    }
+
+    @Benchmark
+    public void enumeration(Blackhole blackhole) {
+        for (int i = 0; i < NUMBER_OF_TRIPS; i++) {
+            blackhole.consume(calculateMinNoZonesByEnumeration(zonesOfTrips.get(i)));
+        }
+    }
+
+    /**
+     * The former approach of enumerating all combinations of hybrid zone assignments.
+     */
+    private int calculateMinNoZonesByEnumeration(List<String> zones) {
+
+        List<List<String>> zoneCombinations = new ArrayList<>();
+        zoneCombinations.add(zones);
+
+        for (int id = 0; id < zones.size(); id++) {
+            List<String> zoneAssignments = hybridZoneAssignments.get(zones.get(id));
+            if (zoneAssignments == null) continue;
+
+            List<List<String>> combinations = new ArrayList<>(zoneCombinations.size() * zoneAssignments.size());
+            for (List<String> combination : zoneCombinations) {
+                for (String zoneAssignment : zoneAssignments) {
+                    List<String> copy = new ArrayList<>(combination);
+                    copy.set(id, zoneAssignment);
+                    combinations.add(copy);
+                }
+            }
+            zoneCombinations = combinations;
+        }
+
+        List<Integer> zoneRanges = zoneCombinations.stream()
+                .map(list -> list.stream()
+                        .map(Integer::parseInt)
+                        .collect(Collectors.toList()))
+                .map(list -> Collections.max(list) - Collections.min(list))
+                .collect(Collectors.toList());
+
+        return Collections.min(zoneRanges) + 1;
+    }
+}
@@ -0,0 +1,64 @@
+package org.matsim.stuttgart.ptFares.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FareZoneCalculatorTest {
+
+    // zone codes 0..4 are hybrid zones between neighbouring base zones (bit k and bit k+1), code 5 is an odd one (bits 0 and 4)
+    private final long[] baseZoneMasks = new long[]{0b11L, 0b110L, 0b1100L, 0b11000L, 0b110000L, 0b10001L};
+
+    @Test
+    public void testWithoutHybridZones() {
+        assertEquals(0, FareZoneCalculator.calculateMinNoZones(0L, 0L, baseZoneMasks));
+        assertEquals(1, FareZoneCalculator.calculateMinNoZones(0b100L, 0L, baseZoneMasks));
+        assertEquals(3, FareZoneCalculator.calculateMinNoZones(0b10100L, 0L, baseZoneMasks));
+    }
+
+    @Test
+    public void testHybridZones() {
+        // hybrid 1/2 only
+        assertEquals(1, FareZoneCalculator.calculateMinNoZones(0L, 0b1L, baseZoneMasks));
+        // base zone 2 and hybrid 1/2
+        assertEquals(1, FareZoneCalculator.calculateMinNoZones(0b10L, 0b1L, baseZoneMasks));
+        // base zone 4 and hybrid 1/2
+        assertEquals(3, FareZoneCalculator.calculateMinNoZones(0b1000L, 0b1L, baseZoneMasks));
+        // hybrids 1/2 and 2/3
+        assertEquals(1, FareZoneCalculator.calculateMinNoZones(0L, 0b11L, baseZoneMasks));
+        // hybrids 1/2 and 3/4
+        assertEquals(2, FareZoneCalculator.calculateMinNoZones(0L, 0b101L, baseZoneMasks));
+        // base zone 3 and hybrid 1/5
+        assertEquals(3, FareZoneCalculator.calculateMinNoZones(0b100L, 0b100000L, baseZoneMasks));
+    }
+
+    @Test
+    public void testAgainstAllCombinations() {
+        Random random = new Random(4711);
+
+        for (int i = 0; i < 1000; i++) {
+            long baseZones = random.nextInt(1 << 6);
+            long hybridZoneCodes = random.nextInt(1 << baseZoneMasks.length);
+
+            assertEquals(minNoZonesOfAllCombinations(baseZones, hybridZoneCodes),
+                    FareZoneCalculator.calculateMinNoZones(baseZones, hybridZoneCodes, baseZoneMasks));
+        }
+    }
+
+    private int minNoZonesOfAllCombinations(long baseZones, long remainingHybridZoneCodes) {
+        if (remainingHybridZoneCodes == 0L) {
+            return baseZones == 0L ? 0 : Long.SIZE - Long.numberOfLeadingZeros(baseZones) - Long.numberOfTrailingZeros(baseZones);
+        }
+
+        int code = Long.numberOfTrailingZeros(remainingHybridZoneCodes);
+        int minNoZones = Integer.MAX_VALUE;
+        for (long assignments = baseZoneMasks[code]; assignments != 0L; assignments &= assignments - 1) {
+            long assignment = assignments & -assignments;
+            minNoZones = Math.min(minNoZones,
+                    minNoZonesOfAllCombinations(baseZones | assignment, remainingHybridZoneCodes & ~(1L << code)));
+        }
+        return minNoZones;
+    }
+}
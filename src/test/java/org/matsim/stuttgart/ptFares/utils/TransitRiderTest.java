@@ -0,0 +1,35 @@
+package org.matsim.stuttgart.ptFares.utils;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import static org.junit.Assert.assertEquals;
+
+public class TransitRiderTest {
+
+    @Test
+    public void testStoredStopSequences() {
+
+        var rider = new TransitRider(Id.createPersonId("rider"), true);
+        rider.startTrip(Id.create("a", TransitStopFacility.class), 0);
+        rider.updateTrip(Id.create("b", TransitStopFacility.class), 1);
+        rider.closeTrip();
+
+        assertEquals(1, rider.getAllTrips().size());
+        assertEquals(2, rider.getAllTrips().get(0).getStopSequence().size());
+        assertEquals(0b11L, rider.getZoneCodes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTripsWithoutStoredStopSequences() {
+
+        var rider = new TransitRider(Id.createPersonId("rider"), false);
+        rider.startTrip(Id.create("a", TransitStopFacility.class), 0);
+        rider.closeTrip();
+
+        // zone codes are tracked anyway, but the trips must not silently be empty
+        assertEquals(0b1L, rider.getZoneCodes());
+        rider.getAllTrips();
+    }
+}
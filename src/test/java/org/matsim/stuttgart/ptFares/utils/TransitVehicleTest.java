@@ -0,0 +1,52 @@
+package org.matsim.stuttgart.ptFares.utils;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class TransitVehicleTest {
+
+    @Test
+    public void testPersonsLeaveInAnyOrder() {
+
+        int[] onboardSlots = new int[40];
+        var bus = new TransitVehicle(Id.createVehicleId("bus"));
+        var tram = new TransitVehicle(Id.createVehicleId("tram"));
+
+        // more persons than the initial capacity of a vehicle
+        for (int person = 0; person < 20; person++) {
+            bus.personEntersVehicle(person, onboardSlots);
+        }
+        tram.personEntersVehicle(30, onboardSlots);
+
+        bus.personLeavesVehicle(0, onboardSlots);
+        bus.personLeavesVehicle(10, onboardSlots);
+        bus.personLeavesVehicle(19, onboardSlots);
+        // persons who are not in the bus are ignored
+        bus.personLeavesVehicle(10, onboardSlots);
+        bus.personLeavesVehicle(30, onboardSlots);
+        bus.personLeavesVehicle(35, onboardSlots);
+
+        assertEquals(17, bus.getNumberOfPersonsOnboard());
+        assertEquals(1, tram.getNumberOfPersonsOnboard());
+        Set<Integer> onboard = new HashSet<>();
+        for (int i = 0; i < bus.getNumberOfPersonsOnboard(); i++) {
+            onboard.add(bus.getPersonOnboard(i));
+        }
+        for (int person = 0; person < 20; person++) {
+            assertEquals("person " + person, person != 0 && person != 10 && person != 19, onboard.contains(person));
+        }
+
+        // everyone else leaves again, the slots of moved persons are kept up to date
+        for (int person = 1; person < 19; person++) {
+            bus.personLeavesVehicle(person, onboardSlots);
+        }
+        tram.personLeavesVehicle(30, onboardSlots);
+        assertEquals(0, bus.getNumberOfPersonsOnboard());
+        assertEquals(0, tram.getNumberOfPersonsOnboard());
+    }
+}